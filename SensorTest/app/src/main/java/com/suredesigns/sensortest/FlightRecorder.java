@@ -0,0 +1,387 @@
+package com.suredesigns.sensortest;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * flight recorder of the last samples of the tilt processing.
+ *
+ * each gravity sample makes one record of the raw sample, the tilt vector, the tilt direction, the fling state
+ * and the last MotionEvent dispatched for it (action, coordinates and latency). the records are kept in
+ * preallocated primitive arrays used as a ring, so recording allocates nothing.
+ *
+ * the ring is copied to a second set of arrays and written to a file in the background when
+ * a dispatch latency or a frame interval exceeds its threshold, or on {@link #requestDump()}.
+ * while a file is being written, further triggers are ignored.
+ *
+ * file format (big endian, DataOutputStream):
+ * <pre>
+ *     int magic "TFR1", int reason (REASON_*), long trigger time [ns], int record count,
+ *     records, oldest first:
+ *         long timestamp [ns], float gx, gy, gz, float tiltX, tiltY, int direction, int flingState,
+ *         int action (-1 if nothing was dispatched), float x, y, long latency [ns] (-1 if nothing was dispatched)
+ * </pre>
+ * values not reached by a sample (e.g. the tilt of a sample dropped while the reference changes) are NaN.
+ *
+ * the methods are called on the thread of the sensor listener, and the frame monitor runs on the thread
+ * that called {@link #startFrameMonitor()}; both are the main thread for {@link TiltSensorHost}.
+ */
+public final class FlightRecorder {
+    public static final String TAG = FlightRecorder.class.getSimpleName();
+
+    /** dump requested by {@link #requestDump()}. */
+    public static final int REASON_REQUEST = 0;
+    /** a dispatch latency exceeded the threshold. */
+    public static final int REASON_LATENCY = 1;
+    /** a frame interval exceeded the threshold. */
+    public static final int REASON_FRAME = 2;
+
+    /** callback of a written file. called on the writer thread. */
+    public interface OnDumpListener {
+        /**
+         * @param file written file, or null if writing failed.
+         */
+        public void onDumped(File file, int reason);
+    }
+
+    private static final int MAGIC = 0x54465231; // "TFR1"
+    private static final int AXES = 3;
+    private static final long DEFAULT_LATENCY_THRESHOLD = 50000000L;
+    private static final long DEFAULT_FRAME_THRESHOLD = 50000000L;
+    private static final long DEFAULT_MIN_DUMP_INTERVAL = 10000000000L;
+
+    private final int mCapacity;
+    private final Buffer mRing;
+    private final Buffer mDump;
+    // number of records written (the current record is mWritten - 1).
+    private long mWritten;
+
+    private File mDirectory;
+    private OnDumpListener mListener;
+    private long mLatencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+    private long mFrameThreshold = DEFAULT_FRAME_THRESHOLD;
+    private long mMinDumpInterval = DEFAULT_MIN_DUMP_INTERVAL;
+    private long mLastTriggerNanos = Long.MIN_VALUE / 2;
+    private volatile boolean mDumpRequested;
+    // thread which records the samples (the owner of the ring), set by the first sample.
+    private Thread mRecordingThread;
+    // true while the dump buffer is being written.
+    private volatile boolean mWriting;
+    private int mDumpReason;
+    private long mDumpNanos;
+    private int mDumpCount;
+
+    private Choreographer mChoreographer;
+    private long mLastFrameNanos;
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mFrameThreshold > 0L && mLastFrameNanos != 0L && frameTimeNanos - mLastFrameNanos > mFrameThreshold) {
+                // the frame time is in the time base of System.nanoTime.
+                trigger(REASON_FRAME, SystemClock.elapsedRealtimeNanos());
+            }
+            mLastFrameNanos = frameTimeNanos;
+            if (mChoreographer != null) {
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+    };
+
+    private final Runnable mWriter = new Runnable() {
+        @Override
+        public void run() {
+            final File file = write();
+            final OnDumpListener listener = mListener;
+            mWriting = false;
+            if (listener != null) {
+                listener.onDumped(file, mDumpReason);
+            }
+        }
+    };
+
+    /**
+     * @param capacity number of the records kept.
+     */
+    public FlightRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive : " + capacity);
+        }
+        mCapacity = capacity;
+        mRing = new Buffer(capacity);
+        mDump = new Buffer(capacity);
+    }
+
+    /**
+     * @param seconds time span to keep.
+     * @param delayTime interval of the samples in microseconds (TiltSensorEvent.getDelayTime()).
+     * @return number of the records covering the time span.
+     */
+    public static int capacityOf(float seconds, int delayTime) {
+        if (delayTime <= 0) {
+            throw new IllegalArgumentException("delayTime must be positive : " + delayTime);
+        }
+        return Math.max(1, (int) Math.ceil(seconds * 1e6f / delayTime));
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @param directory directory of the dumped files. nothing is written until it is set.
+     */
+    public void setDirectory(File directory) {
+        mDirectory = directory;
+    }
+
+    public void setOnDumpListener(OnDumpListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param nanos dispatch latency triggering a dump, or 0 to disable the trigger.
+     */
+    public void setLatencyThreshold(long nanos) {
+        mLatencyThreshold = nanos;
+    }
+
+    /**
+     * @param nanos frame interval triggering a dump, or 0 to disable the trigger.
+     */
+    public void setFrameThreshold(long nanos) {
+        mFrameThreshold = nanos;
+    }
+
+    /**
+     * @param nanos minimum time between two automatic dumps, so that a long hitch makes one file.
+     */
+    public void setMinDumpInterval(long nanos) {
+        mMinDumpInterval = nanos;
+    }
+
+    /**
+     * @return number of the dumps started.
+     */
+    public int getDumpCount() {
+        return mDumpCount;
+    }
+
+    /**
+     * dump the records. can be called from any thread.
+     * on the thread of the sensor listener, the records are copied now. on another thread, the copy is
+     * deferred to the next sample, so it doesn't happen while no sample comes (e.g. the sensor is suspended).
+     */
+    public void requestDump() {
+        if (Thread.currentThread() == mRecordingThread) {
+            mDumpRequested = false;
+            startDump(REASON_REQUEST, SystemClock.elapsedRealtimeNanos());
+        } else {
+            mDumpRequested = true;
+        }
+    }
+
+    /**
+     * watch the frame intervals with Choreographer. call this on a thread with a Looper (e.g. the main thread).
+     */
+    public void startFrameMonitor() {
+        if (mChoreographer != null) {
+            return;
+        }
+        mChoreographer = Choreographer.getInstance();
+        mLastFrameNanos = 0L;
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    public void stopFrameMonitor() {
+        if (mChoreographer == null) {
+            return;
+        }
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mChoreographer = null;
+    }
+
+    /**
+     * start the record of a sample.
+     * @param values raw gravity sample.
+     */
+    public void recordSample(long timestamp, float[] values) {
+        if (mRecordingThread == null) {
+            mRecordingThread = Thread.currentThread();
+        }
+        if (mDumpRequested) {
+            mDumpRequested = false;
+            startDump(REASON_REQUEST, timestamp);
+        }
+        final Buffer ring = mRing;
+        final int i = (int) (mWritten % mCapacity);
+        ring.timestamps[i] = timestamp;
+        ring.gravity[i * AXES] = values[0];
+        ring.gravity[i * AXES + 1] = values[1];
+        ring.gravity[i * AXES + 2] = values[2];
+        ring.tilt[i * 2] = Float.NaN;
+        ring.tilt[i * 2 + 1] = Float.NaN;
+        ring.directions[i] = 0;
+        ring.flingStates[i] = 0;
+        ring.actions[i] = -1;
+        ring.pointer[i * 2] = Float.NaN;
+        ring.pointer[i * 2 + 1] = Float.NaN;
+        ring.latencies[i] = -1L;
+        mWritten++;
+    }
+
+    /**
+     * set the processed state of the current sample.
+     */
+    public void recordState(float tiltX, float tiltY, int direction, int flingState) {
+        if (mWritten == 0L) {
+            return;
+        }
+        final Buffer ring = mRing;
+        final int i = (int) ((mWritten - 1) % mCapacity);
+        ring.tilt[i * 2] = tiltX;
+        ring.tilt[i * 2 + 1] = tiltY;
+        ring.directions[i] = direction;
+        ring.flingStates[i] = flingState;
+    }
+
+    /**
+     * set the MotionEvent dispatched for the current sample (the last one if the stroke was split).
+     * @param latency time from the sample to the return of dispatchTouchEvent [ns].
+     * @param now SystemClock.elapsedRealtimeNanos() of the dispatch.
+     */
+    public void recordDispatch(int action, float x, float y, long latency, long now) {
+        if (mWritten == 0L) {
+            return;
+        }
+        final Buffer ring = mRing;
+        final int i = (int) ((mWritten - 1) % mCapacity);
+        ring.actions[i] = action;
+        ring.pointer[i * 2] = x;
+        ring.pointer[i * 2 + 1] = y;
+        ring.latencies[i] = latency;
+        if (mLatencyThreshold > 0L && latency > mLatencyThreshold) {
+            trigger(REASON_LATENCY, now);
+        }
+    }
+
+    /**
+     * forget the records (e.g. when the host is restarted).
+     */
+    public void clear() {
+        mWritten = 0L;
+    }
+
+    private void trigger(int reason, long now) {
+        if (now - mLastTriggerNanos < mMinDumpInterval) {
+            return;
+        }
+        mLastTriggerNanos = now;
+        startDump(reason, now);
+    }
+
+    private void startDump(int reason, long now) {
+        if (mWriting || mDirectory == null) {
+            return;
+        }
+        mWriting = true;
+        final long written = mWritten;
+        final int count = (int) Math.min(written, mCapacity);
+        final int first = (int) ((written - count) % mCapacity);
+        // unroll the ring so that the writer reads the records in order.
+        final int head = Math.min(count, mCapacity - first);
+        mRing.copyTo(mDump, first, 0, head);
+        mRing.copyTo(mDump, 0, head, count - head);
+        mDump.count = count;
+        mDumpReason = reason;
+        mDumpNanos = now;
+        mDumpCount++;
+        new Thread(mWriter, TAG).start();
+    }
+
+    private File write() {
+        final Buffer dump = mDump;
+        final File file = new File(mDirectory, "tilt-" + System.currentTimeMillis() + ".tfr");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(mDumpReason);
+            out.writeLong(mDumpNanos);
+            out.writeInt(dump.count);
+            for (int i = 0; i < dump.count; i++) {
+                out.writeLong(dump.timestamps[i]);
+                out.writeFloat(dump.gravity[i * AXES]);
+                out.writeFloat(dump.gravity[i * AXES + 1]);
+                out.writeFloat(dump.gravity[i * AXES + 2]);
+                out.writeFloat(dump.tilt[i * 2]);
+                out.writeFloat(dump.tilt[i * 2 + 1]);
+                out.writeInt(dump.directions[i]);
+                out.writeInt(dump.flingStates[i]);
+                out.writeInt(dump.actions[i]);
+                out.writeFloat(dump.pointer[i * 2]);
+                out.writeFloat(dump.pointer[i * 2 + 1]);
+                out.writeLong(dump.latencies[i]);
+            }
+            out.flush();
+            return file;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            return null;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // records in parallel primitive arrays.
+    private static final class Buffer {
+        final long[] timestamps;
+        final float[] gravity;
+        final float[] tilt;
+        final int[] directions;
+        final int[] flingStates;
+        final int[] actions;
+        final float[] pointer;
+        final long[] latencies;
+        int count;
+
+        Buffer(int capacity) {
+            timestamps = new long[capacity];
+            gravity = new float[capacity * AXES];
+            tilt = new float[capacity * 2];
+            directions = new int[capacity];
+            flingStates = new int[capacity];
+            actions = new int[capacity];
+            pointer = new float[capacity * 2];
+            latencies = new long[capacity];
+        }
+
+        void copyTo(Buffer target, int from, int to, int length) {
+            System.arraycopy(timestamps, from, target.timestamps, to, length);
+            System.arraycopy(gravity, from * AXES, target.gravity, to * AXES, length * AXES);
+            System.arraycopy(tilt, from * 2, target.tilt, to * 2, length * 2);
+            System.arraycopy(directions, from, target.directions, to, length);
+            System.arraycopy(flingStates, from, target.flingStates, to, length);
+            System.arraycopy(actions, from, target.actions, to, length);
+            System.arraycopy(pointer, from * 2, target.pointer, to * 2, length * 2);
+            System.arraycopy(latencies, from, target.latencies, to, length);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.suredesigns.sensortest;
+
+import android.view.Choreographer;
+import android.view.MotionEvent;
+
+import java.io.PrintWriter;
+
+/**
+ * correlates the synthetic touch events with the display frames.
+ *
+ * a Choreographer frame callback closes a frame at every vsync. the events dispatched since the previous
+ * callback are the input of that frame, so each frame is counted as having no, one or several MOVE events:
+ * many frames without a MOVE mean the sensor rate starves the display, and many frames with several MOVEs
+ * mean the samples are processed for nothing.
+ *
+ * a frame is late when its callback comes more than half a frame period after the deadline.
+ * late frames after an interval with dispatch work are counted separately, together with the frames
+ * whose dispatch work alone took more than half the frame period.
+ *
+ * the monitor keeps a frame callback posted while it is started, so run it only while measuring.
+ * all the methods are called on the main thread.
+ */
+public final class FrameDispatchMonitor {
+    /** default frame period [ns] (60 Hz). */
+    public static final long DEFAULT_FRAME_PERIOD = 16666667L;
+
+    // frames with 0, 1, ..., MAX_MOVES - 1 and MAX_MOVES or more MOVE events.
+    private static final int MAX_MOVES = 4;
+
+    private long mFramePeriod = DEFAULT_FRAME_PERIOD;
+    private Choreographer mChoreographer;
+    private long mLastFrameNanos;
+
+    // input of the current frame.
+    private int mMoves;
+    private int mDispatches;
+    private long mDispatchNanos;
+
+    private final long[] mFramesByMoves = new long[MAX_MOVES + 1];
+    private long mFrames;
+    private long mLateFrames;
+    private long mLateFramesWithDispatch;
+    private long mOverBudgetFrames;
+    private long mTotalDispatchNanos;
+    private long mMaxDispatchNanos;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mLastFrameNanos != 0L) {
+                closeFrame(frameTimeNanos - mLastFrameNanos);
+            } else {
+                clearFrame();
+            }
+            mLastFrameNanos = frameTimeNanos;
+            if (mChoreographer != null) {
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+    };
+
+    /**
+     * @param framePeriod frame period of the display [ns] (1e9 / Display.getRefreshRate()).
+     */
+    public void setFramePeriod(long framePeriod) {
+        if (framePeriod <= 0L) {
+            throw new IllegalArgumentException("frame period must be positive : " + framePeriod);
+        }
+        mFramePeriod = framePeriod;
+    }
+
+    public long getFramePeriod() {
+        return mFramePeriod;
+    }
+
+    public boolean isStarted() {
+        return mChoreographer != null;
+    }
+
+    public void start() {
+        if (mChoreographer != null) {
+            return;
+        }
+        mChoreographer = Choreographer.getInstance();
+        mLastFrameNanos = 0L;
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    public void stop() {
+        if (mChoreographer == null) {
+            return;
+        }
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mChoreographer = null;
+    }
+
+    /**
+     * a synthetic event was dispatched.
+     * @param durationNanos time spent in View.dispatchTouchEvent.
+     */
+    public void onDispatch(int action, long durationNanos) {
+        if (action == MotionEvent.ACTION_MOVE) {
+            mMoves++;
+        }
+        mDispatches++;
+        mDispatchNanos += durationNanos;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long getFramesWithoutMove() {
+        return mFramesByMoves[0];
+    }
+
+    public long getFramesWithOneMove() {
+        return mFramesByMoves[1];
+    }
+
+    public long getFramesWithSeveralMoves() {
+        long frames = 0L;
+        for (int i = 2; i <= MAX_MOVES; i++) {
+            frames += mFramesByMoves[i];
+        }
+        return frames;
+    }
+
+    public long getLateFrames() {
+        return mLateFrames;
+    }
+
+    /**
+     * @return late frames whose input included at least one dispatched event.
+     */
+    public long getLateFramesWithDispatch() {
+        return mLateFramesWithDispatch;
+    }
+
+    /**
+     * @return frames whose dispatch work took more than half the frame period.
+     */
+    public long getOverBudgetFrames() {
+        return mOverBudgetFrames;
+    }
+
+    public float getMaxDispatchMillisPerFrame() {
+        return mMaxDispatchNanos * 1e-6f;
+    }
+
+    public void reset() {
+        for (int i = 0; i <= MAX_MOVES; i++) {
+            mFramesByMoves[i] = 0L;
+        }
+        mFrames = 0L;
+        mLateFrames = 0L;
+        mLateFramesWithDispatch = 0L;
+        mOverBudgetFrames = 0L;
+        mTotalDispatchNanos = 0L;
+        mMaxDispatchNanos = 0L;
+        clearFrame();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        final long frames = mFrames;
+        writer.println(prefix + "frames : " + frames + " (period " + mFramePeriod / 1000L + " us)");
+        final StringBuilder moves = new StringBuilder(prefix).append("  moves per frame :");
+        for (int i = 0; i <= MAX_MOVES; i++) {
+            moves.append(' ').append(i).append(i == MAX_MOVES ? "+ " : " ").append(mFramesByMoves[i]);
+        }
+        writer.println(moves.toString());
+        writer.println(prefix + "  late " + mLateFrames + ", late with dispatch " + mLateFramesWithDispatch
+                + ", dispatch over budget " + mOverBudgetFrames);
+        writer.println(prefix + "  dispatch per frame : mean "
+                + (frames == 0L ? 0.0f : mTotalDispatchNanos * 1e-6f / frames) + " ms, max " + getMaxDispatchMillisPerFrame() + " ms");
+    }
+
+    private void closeFrame(long interval) {
+        mFrames++;
+        mFramesByMoves[Math.min(mMoves, MAX_MOVES)]++;
+        final long period = mFramePeriod;
+        if (interval > period + period / 2) {
+            mLateFrames++;
+            if (mDispatches > 0) {
+                mLateFramesWithDispatch++;
+            }
+        }
+        if (mDispatchNanos > period / 2) {
+            mOverBudgetFrames++;
+        }
+        mTotalDispatchNanos += mDispatchNanos;
+        if (mDispatchNanos > mMaxDispatchNanos) {
+            mMaxDispatchNanos = mDispatchNanos;
+        }
+        clearFrame();
+    }
+
+    private void clearFrame() {
+        mMoves = 0;
+        mDispatches = 0;
+        mDispatchNanos = 0L;
+    }
+}
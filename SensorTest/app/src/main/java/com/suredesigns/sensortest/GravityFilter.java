@@ -0,0 +1,20 @@
+package com.suredesigns.sensortest;
+
+/**
+ * filter stage applied to the (normalized) gravity vector by {@link TiltSession},
+ * in place of the low-pass filter of {@link TiltSensorEvent#updateGravitation(float[])}.
+ * implementations filter the given values in place and must not allocate per sample.
+ */
+public interface GravityFilter {
+    /**
+     * filter values in place.
+     * @param values sample of the sensor (length must be equal to the number of axes of the filter).
+     * @param timestamp timestamp of the sample in nanoseconds (i.e. SensorEvent.timestamp).
+     */
+    public void filter(float[] values, long timestamp);
+
+    /**
+     * forget the filter state. next sample passes through as it is.
+     */
+    public void reset();
+}
@@ -0,0 +1,136 @@
+package com.suredesigns.sensortest;
+
+import java.io.PrintWriter;
+
+/**
+ * offline comparison of {@link GravityFilter}s on a recorded trace of gravity samples.
+ *
+ * two figures are reported for each filter:
+ * - jitter : RMS of the second difference of the filtered signal (noise left while the device is still).
+ * - latency : time shift [ms] of the filtered signal which best matches the raw signal (lag while tilting).
+ *   the shift is searched in whole samples, and refined below one sample by the vertex of the parabola
+ *   through the mean squared errors of the best shift and its neighbours.
+ *
+ * it depends on no Android class, so it can be run on a workstation with the compiled classes of the app.
+ */
+public final class GravityFilterEvaluator {
+    public static final String TAG = GravityFilterEvaluator.class.getSimpleName();
+
+    public static final int RESULT_JITTER = 0;
+    public static final int RESULT_LATENCY_MS = 1;
+    public static final int RESULT_SIZE = 2;
+
+    // maximum shift searched for the latency estimation [samples].
+    private static final int MAX_SHIFT = 50;
+
+    private GravityFilterEvaluator() {
+    }
+
+    /**
+     * run the filter over the trace and evaluate jitter and latency.
+     * @param filter filter to evaluate (it is reset before and after the run).
+     * @param timestamps timestamps of the samples in nanoseconds.
+     * @param samples samples interleaved by axis (i.e. samples[n * axes + axis]).
+     * @param axes number of axes.
+     * @param result array of RESULT_SIZE to store the result.
+     */
+    public static void evaluate(GravityFilter filter, long[] timestamps, float[] samples, int axes, float[] result) {
+        final int count = timestamps.length;
+        if (samples.length < count * axes) {
+            throw new IllegalArgumentException("trace is too short : " + samples.length + " < " + count * axes);
+        }
+        final float[] filtered = new float[count * axes];
+        final float[] value = new float[axes];
+
+        filter.reset();
+        for (int n = 0; n < count; n++) {
+            System.arraycopy(samples, n * axes, value, 0, axes);
+            filter.filter(value, timestamps[n]);
+            System.arraycopy(value, 0, filtered, n * axes, axes);
+        }
+        filter.reset();
+
+        result[RESULT_JITTER] = jitterOf(filtered, count, axes);
+        result[RESULT_LATENCY_MS] = latencyOf(samples, filtered, timestamps, count, axes);
+    }
+
+    /**
+     * evaluate the default chain of a {@link TiltSession} (the low-pass filter with 0.8f) and a chain of
+     * a One Euro filter alone, which replaces the low-pass filter when set by TiltSession.setFilterChain,
+     * on the trace, and print the result.
+     */
+    public static void compare(long[] timestamps, float[] samples, int axes, float minCutoff, float beta,
+                               PrintWriter writer) {
+        final float[] lowPass = new float[RESULT_SIZE];
+        final float[] oneEuro = new float[RESULT_SIZE];
+        final SensorFilterChain oneEuroChain = new SensorFilterChain(axes);
+        oneEuroChain.addOneEuro(minCutoff, beta);
+        evaluate(SensorFilterChain.createDefault(axes), timestamps, samples, axes, lowPass);
+        evaluate(oneEuroChain, timestamps, samples, axes, oneEuro);
+        writer.println("low-pass  : jitter = " + lowPass[RESULT_JITTER]
+                + ", latency = " + lowPass[RESULT_LATENCY_MS] + " ms");
+        writer.println("one euro  : jitter = " + oneEuro[RESULT_JITTER]
+                + ", latency = " + oneEuro[RESULT_LATENCY_MS] + " ms"
+                + " (minCutoff = " + minCutoff + ", beta = " + beta + ")");
+        writer.flush();
+    }
+
+    private static float jitterOf(float[] filtered, int count, int axes) {
+        if (count < 3) {
+            return 0.0f;
+        }
+        double sum = 0.0;
+        for (int n = 2; n < count; n++) {
+            for (int i = 0; i < axes; i++) {
+                final float d2 = filtered[n * axes + i] - 2.0f * filtered[(n - 1) * axes + i] + filtered[(n - 2) * axes + i];
+                sum += d2 * d2;
+            }
+        }
+        return (float) Math.sqrt(sum / ((count - 2) * axes));
+    }
+
+    private static float latencyOf(float[] raw, float[] filtered, long[] timestamps, int count, int axes) {
+        if (count < 3) {
+            return 0.0f;
+        }
+        final int maxShift = Math.min(MAX_SHIFT, count - 2);
+        // errors[k] is the error of the shift k - 1. the shift of -1 sample is searched as well,
+        // so a lag below one sample has a neighbour on both sides to be interpolated.
+        final double[] errors = new double[maxShift + 2];
+        int best = 0;
+        for (int k = 0; k < errors.length; k++) {
+            final int shift = k - 1;
+            final int first = Math.max(shift, 0);
+            final int last = Math.min(count, count + shift);
+            double error = 0.0;
+            for (int n = first; n < last; n++) {
+                for (int i = 0; i < axes; i++) {
+                    final float d = filtered[n * axes + i] - raw[(n - shift) * axes + i];
+                    error += d * d;
+                }
+            }
+            errors[k] = error / (last - first);
+            if (errors[k] < errors[best]) {
+                best = k;
+            }
+        }
+        final float meanIntervalMs = (timestamps[count - 1] - timestamps[0]) * 1e-6f / (count - 1);
+        return (float) ((subSampleIndexOf(errors, best) - 1.0) * meanIntervalMs);
+    }
+
+    // vertex of the parabola through the errors at best - 1, best and best + 1.
+    // the index is kept as it is at the ends of the range or if the errors are not convex there.
+    private static double subSampleIndexOf(double[] errors, int best) {
+        if (best == 0 || best == errors.length - 1) {
+            return best;
+        }
+        final double previous = errors[best - 1];
+        final double next = errors[best + 1];
+        final double curvature = previous - 2.0 * errors[best] + next;
+        if (curvature <= 0.0) {
+            return best;
+        }
+        // |offset| <= 0.5 since errors[best] is the minimum.
+        return best + 0.5 * (previous - next) / curvature;
+    }
+}
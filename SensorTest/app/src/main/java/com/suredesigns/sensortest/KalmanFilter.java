@@ -0,0 +1,104 @@
+package com.suredesigns.sensortest;
+
+/**
+ * constant-velocity Kalman filter, applied to each axis independently.
+ *
+ * state of each axis is (position, velocity) and its 2x2 covariance, kept in primitive arrays.
+ * process noise is the white-noise acceleration model (spectral density q),
+ * measurement noise is the variance r of the sample.
+ */
+public final class KalmanFilter implements GravityFilter {
+    public static final float DEFAULT_PROCESS_NOISE = 0.5f;
+    public static final float DEFAULT_MEASUREMENT_NOISE = 0.0025f;
+
+    private static final float NANOS_TO_SECONDS = 1e-9f;
+    private static final float FALLBACK_DT = 0.02f;
+
+    private final float[] mPosition;
+    private final float[] mVelocity;
+    // covariance matrix [[p00, p01], [p01, p11]] of each axis.
+    private final float[] mP00;
+    private final float[] mP01;
+    private final float[] mP11;
+    private float mProcessNoise;
+    private float mMeasurementNoise;
+    private long mPrevTimestamp;
+    private boolean mInitialized;
+
+    public KalmanFilter(int axes) {
+        this(axes, DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    public KalmanFilter(int axes, float processNoise, float measurementNoise) {
+        mPosition = new float[axes];
+        mVelocity = new float[axes];
+        mP00 = new float[axes];
+        mP01 = new float[axes];
+        mP11 = new float[axes];
+        setNoise(processNoise, measurementNoise);
+    }
+
+    public void setNoise(float processNoise, float measurementNoise) {
+        if (processNoise <= 0.0f || measurementNoise <= 0.0f) {
+            throw new IllegalArgumentException("noise must be positive : " + processNoise + ", " + measurementNoise);
+        }
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        final int axes = mPosition.length;
+        if (!mInitialized) {
+            for (int i = 0; i < axes; i++) {
+                mPosition[i] = values[i];
+                mVelocity[i] = 0.0f;
+                mP00[i] = mMeasurementNoise;
+                mP01[i] = 0.0f;
+                mP11[i] = 1.0f;
+            }
+            mPrevTimestamp = timestamp;
+            mInitialized = true;
+            return;
+        }
+
+        float dt = (timestamp - mPrevTimestamp) * NANOS_TO_SECONDS;
+        if (dt <= 0.0f) {
+            dt = FALLBACK_DT;
+        }
+        mPrevTimestamp = timestamp;
+
+        final float q = mProcessNoise;
+        final float r = mMeasurementNoise;
+        final float dt2 = dt * dt;
+        final float q00 = q * dt2 * dt / 3.0f;
+        final float q01 = q * dt2 * 0.5f;
+        final float q11 = q * dt;
+        for (int i = 0; i < axes; i++) {
+            // predict.
+            final float x = mPosition[i] + mVelocity[i] * dt;
+            final float v = mVelocity[i];
+            final float p00 = mP00[i] + dt * (2.0f * mP01[i] + dt * mP11[i]) + q00;
+            final float p01 = mP01[i] + dt * mP11[i] + q01;
+            final float p11 = mP11[i] + q11;
+
+            // update.
+            final float invS = 1.0f / (p00 + r);
+            final float k0 = p00 * invS;
+            final float k1 = p01 * invS;
+            final float innovation = values[i] - x;
+            mPosition[i] = x + k0 * innovation;
+            mVelocity[i] = v + k1 * innovation;
+            mP00[i] = (1.0f - k0) * p00;
+            mP01[i] = (1.0f - k0) * p01;
+            mP11[i] = p11 - k1 * p01;
+
+            values[i] = mPosition[i];
+        }
+    }
+
+    @Override
+    public void reset() {
+        mInitialized = false;
+    }
+}
@@ -0,0 +1,140 @@
+package com.suredesigns.sensortest;
+
+/**
+ * fixed-memory log-linear histogram of latencies in nanoseconds.
+ *
+ * each power of two is split into 16 linear buckets, so a value is recorded with an error below 1/16
+ * (6.25%) from 1 ns up to about 68 s (larger values go to the last bucket). recording is a few
+ * integer operations and one array increment, and nothing is allocated.
+ *
+ * the histogram is written by one thread (the sensor thread). it can be read from another thread,
+ * in which case the readout may miss the samples being recorded at that moment.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below 2^MAX_EXPONENT are recorded exactly to the bucket.
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    /**
+     * @param nanos latency in nanoseconds. negative values (clocks of different origins) are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0L) {
+            nanos = 0L;
+        }
+        mCounts[indexOf(nanos)]++;
+        mCount++;
+        mSum += nanos;
+        if (nanos > mMax) {
+            mMax = nanos;
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMaxNanos() {
+        return mMax;
+    }
+
+    public long getMeanNanos() {
+        return mCount == 0L ? 0L : mSum / mCount;
+    }
+
+    /**
+     * @param q quantile in [0, 1] (e.g. 0.99 for p99).
+     * @return latency of the quantile in nanoseconds (middle of its bucket), or 0 if nothing is recorded.
+     */
+    public long getQuantileNanos(float q) {
+        final long count = mCount;
+        if (count == 0L) {
+            return 0L;
+        }
+        if (q >= 1.0f) {
+            return mMax;
+        }
+        final long rank = (long) (Math.max(q, 0.0f) * count);
+        long cumulative = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += mCounts[i];
+            if (cumulative > rank) {
+                return Math.min(middleOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public float getP50Millis() {
+        return getQuantileNanos(0.5f) * 1e-6f;
+    }
+
+    public float getP90Millis() {
+        return getQuantileNanos(0.9f) * 1e-6f;
+    }
+
+    public float getP99Millis() {
+        return getQuantileNanos(0.99f) * 1e-6f;
+    }
+
+    public float getMaxMillis() {
+        return mMax * 1e-6f;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] = 0L;
+        }
+        mCount = 0L;
+        mSum = 0L;
+        mMax = 0L;
+    }
+
+    /**
+     * add the counts of the other histogram (e.g. to merge the histograms of several sessions).
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        if (other.mMax > mMax) {
+            mMax = other.mMax;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "count " + mCount + ", p50 " + getP50Millis() + " ms, p90 " + getP90Millis()
+                + " ms, p99 " + getP99Millis() + " ms, max " + getMaxMillis() + " ms";
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long middleOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
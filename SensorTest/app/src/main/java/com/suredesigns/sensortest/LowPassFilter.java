@@ -0,0 +1,57 @@
+package com.suredesigns.sensortest;
+
+/**
+ * fixed-factor low-pass filter. this is the filter used in
+ * {@link TiltSensorEvent#updateGravitation(float[])} (factor 0.8f),
+ * kept as a stage so that it can be compared with {@link OneEuroFilter}.
+ *
+ * filtered = filtered + factor * (sample - filtered).
+ */
+public final class LowPassFilter implements GravityFilter {
+    public static final float DEFAULT_FACTOR = 0.8f;
+
+    private final float[] mState;
+    private float mFactor;
+    private boolean mInitialized;
+
+    public LowPassFilter(int axes) {
+        this(axes, DEFAULT_FACTOR);
+    }
+
+    public LowPassFilter(int axes, float factor) {
+        mState = new float[axes];
+        setFactor(factor);
+    }
+
+    public void setFactor(float factor) {
+        if (factor <= 0.0f || factor > 1.0f) {
+            throw new IllegalArgumentException("factor must be in (0, 1] : " + factor);
+        }
+        mFactor = factor;
+    }
+
+    public float getFactor() {
+        return mFactor;
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        final float[] state = mState;
+        final int axes = state.length;
+        if (!mInitialized) {
+            System.arraycopy(values, 0, state, 0, axes);
+            mInitialized = true;
+            return;
+        }
+        final float factor = mFactor;
+        for (int i = 0; i < axes; i++) {
+            state[i] += factor * (values[i] - state[i]);
+            values[i] = state[i];
+        }
+    }
+
+    @Override
+    public void reset() {
+        mInitialized = false;
+    }
+}
@@ -0,0 +1,55 @@
+package com.suredesigns.sensortest;
+
+/**
+ * median-of-3 filter. it rejects single-sample spikes and delays the signal by one sample.
+ */
+public final class MedianFilter3 implements GravityFilter {
+    private final float[] mPrev1;
+    private final float[] mPrev2;
+    private int mCount;
+
+    public MedianFilter3(int axes) {
+        mPrev1 = new float[axes];
+        mPrev2 = new float[axes];
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        final float[] prev1 = mPrev1;
+        final float[] prev2 = mPrev2;
+        final int axes = prev1.length;
+        if (mCount < 2) {
+            // not enough history: pass the sample through.
+            System.arraycopy(prev1, 0, prev2, 0, axes);
+            System.arraycopy(values, 0, prev1, 0, axes);
+            mCount++;
+            return;
+        }
+        for (int i = 0; i < axes; i++) {
+            final float a = prev2[i];
+            final float b = prev1[i];
+            final float c = values[i];
+            prev2[i] = b;
+            prev1[i] = c;
+            values[i] = medianOf(a, b, c);
+        }
+    }
+
+    @Override
+    public void reset() {
+        mCount = 0;
+    }
+
+    private static float medianOf(float a, float b, float c) {
+        if (a > b) {
+            if (b > c) {
+                return b;
+            }
+            return a > c ? c : a;
+        }
+        if (a > c) {
+            return a;
+        }
+        return b > c ? c : b;
+    }
+}
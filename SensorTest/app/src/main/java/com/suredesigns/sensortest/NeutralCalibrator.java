@@ -0,0 +1,271 @@
+package com.suredesigns.sensortest;
+
+/**
+ * online calibration of the neutral orientation with drift compensation.
+ *
+ * {@link TiltSensorEvent#changeReferencePoint()} snapshots the gravity once, so slow drift of the hand
+ * becomes a constant scroll. this class keeps the Welford running mean and variance of the gravity while
+ * the device is near-still, and moves its neutral orientation toward the mean at a bounded angular rate.
+ *
+ * the engine has no setter of its reference, so the neutral is applied by rotating each gravity sample
+ * with the rotation which maps the neutral onto the engine's reference ({@link #apply(float[])}).
+ * for the tilt computed by the engine, this is the same as moving the reference to the neutral.
+ *
+ * the cost per sample is constant and nothing is allocated.
+ */
+public final class NeutralCalibrator {
+    private static final float NANOS_TO_SECONDS = 1e-9f;
+
+    /** default maximum speed of the gravity regarded as near-still [1/s]. */
+    public static final float DEFAULT_STILL_SPEED = 0.05f;
+    /** default maximum variance (trace of the covariance) of the gravity regarded as near-still. */
+    public static final float DEFAULT_STILL_VARIANCE = 1e-4f;
+    /** default maximum rate of the correction [rad/s] (about 1 degree per second). */
+    public static final float DEFAULT_MAX_RATE = 0.0175f;
+    /**
+     * default maximum angle between the neutral and the reference [rad] (beyond this, tilt is intended).
+     * half of the smallest tilt threshold of the engine (0.08, back), so that the correction never absorbs
+     * a tilt which is reported as a direction.
+     */
+    public static final float DEFAULT_CAPTURE_ANGLE = 0.5f * 0.08f;
+    /** samples needed before the mean is trusted. */
+    public static final int DEFAULT_MIN_SAMPLES = 25;
+    // the statistics forget samples older than about this count (the device is never perfectly still).
+    private static final int MAX_SAMPLES = 500;
+
+    private final float[] mReference = new float[3];
+    private final float[] mNeutral = new float[3];
+    private final float[] mPrev = new float[3];
+    private final float[] mMean = new float[3];
+    private final float[] mM2 = new float[3];
+    private int mCount;
+    private long mPrevTimestamp;
+    private boolean mHasPrev;
+    private boolean mHasReference;
+
+    // rotation from the neutral to the reference (axis, cos, sin).
+    private final float[] mAxis = new float[3];
+    private float mCos = 1.0f;
+    private float mSin = 0.0f;
+
+    private float mStillSpeed = DEFAULT_STILL_SPEED;
+    private float mStillVariance = DEFAULT_STILL_VARIANCE;
+    private float mMaxRate = DEFAULT_MAX_RATE;
+    private float mCaptureCos = (float) Math.cos(DEFAULT_CAPTURE_ANGLE);
+    private int mMinSamples = DEFAULT_MIN_SAMPLES;
+
+    public void setStillThresholds(float stillSpeed, float stillVariance) {
+        mStillSpeed = stillSpeed;
+        mStillVariance = stillVariance;
+    }
+
+    public void setMaxRate(float maxRate) {
+        if (maxRate < 0.0f) {
+            throw new IllegalArgumentException("maxRate must not be negative : " + maxRate);
+        }
+        mMaxRate = maxRate;
+    }
+
+    public void setCaptureAngle(float captureAngle) {
+        mCaptureCos = (float) Math.cos(captureAngle);
+    }
+
+    public void setMinSamples(int minSamples) {
+        mMinSamples = Math.max(2, Math.min(minSamples, MAX_SAMPLES));
+    }
+
+    /**
+     * set the reference of the engine (e.g. {@link TiltSensorEvent#copyReferenceTo(float[])} after it changed).
+     * the current correction is kept, so the tilt doesn't jump.
+     */
+    public void setReference(float[] reference) {
+        mReference[0] = reference[0];
+        mReference[1] = reference[1];
+        mReference[2] = reference[2];
+        normalize(mReference);
+        if (!mHasReference) {
+            System.arraycopy(mReference, 0, mNeutral, 0, 3);
+            mHasReference = true;
+        } else {
+            // the neutral is the raw gravity which the current correction maps onto the new reference.
+            System.arraycopy(mReference, 0, mNeutral, 0, 3);
+            rotate(mNeutral, -mSin);
+        }
+        updateRotation();
+        resetStatistics();
+    }
+
+    /**
+     * feed a normalized (raw, not corrected) gravity sample.
+     */
+    public void update(float[] gravity, long timestamp) {
+        if (!mHasReference) {
+            return;
+        }
+        if (!mHasPrev) {
+            copy(gravity, mPrev);
+            mPrevTimestamp = timestamp;
+            mHasPrev = true;
+            return;
+        }
+        float dt = (timestamp - mPrevTimestamp) * NANOS_TO_SECONDS;
+        mPrevTimestamp = timestamp;
+        final float dx = gravity[0] - mPrev[0];
+        final float dy = gravity[1] - mPrev[1];
+        final float dz = gravity[2] - mPrev[2];
+        copy(gravity, mPrev);
+        if (dt <= 0.0f) {
+            return;
+        }
+        final float speed = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / dt;
+        if (speed > mStillSpeed) {
+            resetStatistics();
+            return;
+        }
+
+        // Welford's update, with the count capped so that old samples are forgotten.
+        if (mCount < MAX_SAMPLES) {
+            mCount++;
+        }
+        final float invCount = 1.0f / mCount;
+        float variance = 0.0f;
+        for (int i = 0; i < 3; i++) {
+            final float delta = gravity[i] - mMean[i];
+            mMean[i] += delta * invCount;
+            mM2[i] += delta * (gravity[i] - mMean[i]);
+            if (mCount == MAX_SAMPLES) {
+                mM2[i] *= 1.0f - invCount;
+            }
+            variance += mM2[i];
+        }
+        variance /= mCount > 1 ? mCount - 1 : 1;
+        if (mCount < mMinSamples || variance > mStillVariance) {
+            return;
+        }
+
+        // move the neutral toward the mean, within the capture angle and at the bounded rate.
+        final float meanNorm = (float) Math.sqrt(mMean[0] * mMean[0] + mMean[1] * mMean[1] + mMean[2] * mMean[2]);
+        if (meanNorm == 0.0f) {
+            return;
+        }
+        final float invNorm = 1.0f / meanNorm;
+        final float tx = mMean[0] * invNorm;
+        final float ty = mMean[1] * invNorm;
+        final float tz = mMean[2] * invNorm;
+        if (tx * mReference[0] + ty * mReference[1] + tz * mReference[2] < mCaptureCos) {
+            return;
+        }
+        final float cos = clamp(tx * mNeutral[0] + ty * mNeutral[1] + tz * mNeutral[2]);
+        final float angle = (float) Math.acos(cos);
+        if (angle == 0.0f) {
+            return;
+        }
+        final float ratio = Math.min(1.0f, mMaxRate * dt / angle);
+        mNeutral[0] += ratio * (tx - mNeutral[0]);
+        mNeutral[1] += ratio * (ty - mNeutral[1]);
+        mNeutral[2] += ratio * (tz - mNeutral[2]);
+        normalize(mNeutral);
+        updateRotation();
+    }
+
+    /**
+     * the sample is not near-still (e.g. a direction is reported): forget the statistics instead of updating them.
+     */
+    public void skip() {
+        mHasPrev = false;
+        resetStatistics();
+    }
+
+    /**
+     * rotate the gravity sample in place so that the neutral maps onto the reference.
+     */
+    public void apply(float[] gravity) {
+        if (mSin != 0.0f) {
+            rotate(gravity, mSin);
+        }
+    }
+
+    /**
+     * @return angle between the neutral and the reference [rad].
+     */
+    public float getCorrectionAngle() {
+        return (float) Math.atan2(mSin, mCos);
+    }
+
+    public void copyNeutralTo(float[] neutral) {
+        copy(mNeutral, neutral);
+    }
+
+    public void reset() {
+        mHasReference = false;
+        mHasPrev = false;
+        mCos = 1.0f;
+        mSin = 0.0f;
+        resetStatistics();
+    }
+
+    private void resetStatistics() {
+        mCount = 0;
+        for (int i = 0; i < 3; i++) {
+            mMean[i] = 0.0f;
+            mM2[i] = 0.0f;
+        }
+    }
+
+    private void updateRotation() {
+        // axis = neutral x reference, |axis| = sin, neutral . reference = cos.
+        final float ax = mNeutral[1] * mReference[2] - mNeutral[2] * mReference[1];
+        final float ay = mNeutral[2] * mReference[0] - mNeutral[0] * mReference[2];
+        final float az = mNeutral[0] * mReference[1] - mNeutral[1] * mReference[0];
+        final float sin = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        mCos = clamp(mNeutral[0] * mReference[0] + mNeutral[1] * mReference[1] + mNeutral[2] * mReference[2]);
+        if (sin < 1e-7f) {
+            mSin = 0.0f;
+            return;
+        }
+        mSin = sin;
+        final float invSin = 1.0f / sin;
+        mAxis[0] = ax * invSin;
+        mAxis[1] = ay * invSin;
+        mAxis[2] = az * invSin;
+    }
+
+    // Rodrigues' rotation around mAxis by the angle of (mCos, sin).
+    private void rotate(float[] v, float sin) {
+        final float kx = mAxis[0];
+        final float ky = mAxis[1];
+        final float kz = mAxis[2];
+        final float cos = mCos;
+        final float dot = (kx * v[0] + ky * v[1] + kz * v[2]) * (1.0f - cos);
+        final float cx = ky * v[2] - kz * v[1];
+        final float cy = kz * v[0] - kx * v[2];
+        final float cz = kx * v[1] - ky * v[0];
+        final float x = v[0] * cos + cx * sin + kx * dot;
+        final float y = v[1] * cos + cy * sin + ky * dot;
+        final float z = v[2] * cos + cz * sin + kz * dot;
+        v[0] = x;
+        v[1] = y;
+        v[2] = z;
+    }
+
+    private static void normalize(float[] v) {
+        final float norm = (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        if (norm == 0.0f) {
+            return;
+        }
+        final float inv = 1.0f / norm;
+        v[0] *= inv;
+        v[1] *= inv;
+        v[2] *= inv;
+    }
+
+    private static void copy(float[] from, float[] to) {
+        to[0] = from[0];
+        to[1] = from[1];
+        to[2] = from[2];
+    }
+
+    private static float clamp(float cos) {
+        return cos > 1.0f ? 1.0f : (cos < -1.0f ? -1.0f : cos);
+    }
+}
@@ -0,0 +1,144 @@
+package com.suredesigns.sensortest;
+
+/**
+ * One Euro filter (Casiez, Roussel and Vogel, CHI 2012) for the gravity vector.
+ *
+ * this is a low-pass filter whose cutoff frequency rises with the speed of the signal:
+ * cutoff = minCutoff + beta * |derivative|.
+ * when the device is held still, the cutoff is low and jitter is removed.
+ * when the device is tilted fast, the cutoff is high and lag is small.
+ *
+ * state is kept per axis in primitive arrays, so {@link #filter(float[], long)} doesn't allocate.
+ */
+public final class OneEuroFilter implements GravityFilter {
+    /** default minimum cutoff frequency [Hz]. */
+    public static final float DEFAULT_MIN_CUTOFF = 1.0f;
+    /** default speed coefficient [s]. */
+    public static final float DEFAULT_BETA = 0.5f;
+    /** default cutoff frequency for the derivative [Hz]. */
+    public static final float DEFAULT_DERIVATIVE_CUTOFF = 1.0f;
+
+    private static final float TWO_PI = (float) (2.0 * Math.PI);
+    private static final float NANOS_TO_SECONDS = 1e-9f;
+    // used when timestamps are not increasing (e.g. duplicated samples).
+    private static final float FALLBACK_DT = 0.02f;
+
+    private final float[] mPrevValue;
+    private final float[] mPrevDerivative;
+    private float mMinCutoff;
+    private float mBeta;
+    private float mDerivativeCutoff;
+    private long mPrevTimestamp;
+    private boolean mInitialized;
+
+    public OneEuroFilter(int axes) {
+        this(axes, DEFAULT_MIN_CUTOFF, DEFAULT_BETA, DEFAULT_DERIVATIVE_CUTOFF);
+    }
+
+    public OneEuroFilter(int axes, float minCutoff, float beta) {
+        this(axes, minCutoff, beta, DEFAULT_DERIVATIVE_CUTOFF);
+    }
+
+    public OneEuroFilter(int axes, float minCutoff, float beta, float derivativeCutoff) {
+        mPrevValue = new float[axes];
+        mPrevDerivative = new float[axes];
+        setMinCutoff(minCutoff);
+        setBeta(beta);
+        setDerivativeCutoff(derivativeCutoff);
+    }
+
+    public void setMinCutoff(float minCutoff) {
+        if (minCutoff <= 0.0f) {
+            throw new IllegalArgumentException("minCutoff must be positive : " + minCutoff);
+        }
+        mMinCutoff = minCutoff;
+    }
+
+    public float getMinCutoff() {
+        return mMinCutoff;
+    }
+
+    public void setBeta(float beta) {
+        if (beta < 0.0f) {
+            throw new IllegalArgumentException("beta must not be negative : " + beta);
+        }
+        mBeta = beta;
+    }
+
+    public float getBeta() {
+        return mBeta;
+    }
+
+    public void setDerivativeCutoff(float derivativeCutoff) {
+        if (derivativeCutoff <= 0.0f) {
+            throw new IllegalArgumentException("derivativeCutoff must be positive : " + derivativeCutoff);
+        }
+        mDerivativeCutoff = derivativeCutoff;
+    }
+
+    public float getDerivativeCutoff() {
+        return mDerivativeCutoff;
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        final float[] prevValue = mPrevValue;
+        final float[] prevDerivative = mPrevDerivative;
+        final int axes = prevValue.length;
+        if (!mInitialized) {
+            for (int i = 0; i < axes; i++) {
+                prevValue[i] = values[i];
+                prevDerivative[i] = 0.0f;
+            }
+            mPrevTimestamp = timestamp;
+            mInitialized = true;
+            return;
+        }
+
+        float dt = (timestamp - mPrevTimestamp) * NANOS_TO_SECONDS;
+        if (dt <= 0.0f) {
+            dt = FALLBACK_DT;
+        }
+        mPrevTimestamp = timestamp;
+
+        final float invDt = 1.0f / dt;
+        final float derivativeAlpha = alpha(dt, mDerivativeCutoff);
+        final float minCutoff = mMinCutoff;
+        final float beta = mBeta;
+        for (int i = 0; i < axes; i++) {
+            final float derivative = (values[i] - prevValue[i]) * invDt;
+            final float smoothedDerivative = prevDerivative[i] + derivativeAlpha * (derivative - prevDerivative[i]);
+            prevDerivative[i] = smoothedDerivative;
+
+            final float cutoff = minCutoff + beta * Math.abs(smoothedDerivative);
+            final float value = prevValue[i] + alpha(dt, cutoff) * (values[i] - prevValue[i]);
+            prevValue[i] = value;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * restore the filter state (e.g. after the sensor was suspended).
+     * @param value last filtered value.
+     * @param timestamp timestamp of the value in nanoseconds.
+     */
+    public void restore(float[] value, long timestamp) {
+        System.arraycopy(value, 0, mPrevValue, 0, mPrevValue.length);
+        for (int i = 0; i < mPrevDerivative.length; i++) {
+            mPrevDerivative[i] = 0.0f;
+        }
+        mPrevTimestamp = timestamp;
+        mInitialized = true;
+    }
+
+    @Override
+    public void reset() {
+        mInitialized = false;
+    }
+
+    // smoothing factor of the exponential filter with cutoff frequency fc, sampled at interval dt.
+    private static float alpha(float dt, float cutoff) {
+        final float tau = 1.0f / (TWO_PI * cutoff);
+        return 1.0f / (1.0f + tau / dt);
+    }
+}
@@ -0,0 +1,233 @@
+package com.suredesigns.sensortest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * streaming quantile sketch in fixed memory (KLL style compactors).
+ *
+ * values are appended to level 0. when a level is full, it is sorted and every other value
+ * (with a random offset) is promoted to the next level with twice the weight. the top level
+ * compacts into itself and doubles its weight, so the memory never grows.
+ * {@link #add(float)} doesn't allocate. {@link #quantile(float)} uses preallocated scratch buffers.
+ */
+public final class QuantileSketch {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_LEVELS = 12;
+
+    private static final int VERSION = 1;
+
+    private final int mCapacity;
+    private final int mLevels;
+    // values of level l are mItems[l * mCapacity .. l * mCapacity + mSizes[l]).
+    private final float[] mItems;
+    private final int[] mSizes;
+    private final long[] mWeights;
+    private long mCount;
+    private float mMin = Float.POSITIVE_INFINITY;
+    private float mMax = Float.NEGATIVE_INFINITY;
+    private int mRandom = 0x2545F491;
+
+    private final float[] mScratchValues;
+    private final long[] mScratchWeights;
+
+    public QuantileSketch() {
+        this(DEFAULT_CAPACITY, DEFAULT_LEVELS);
+    }
+
+    public QuantileSketch(int capacity, int levels) {
+        if (capacity < 2 || capacity % 2 != 0 || levels < 1) {
+            throw new IllegalArgumentException("capacity must be even and >= 2, levels >= 1 : " + capacity + ", " + levels);
+        }
+        mCapacity = capacity;
+        mLevels = levels;
+        mItems = new float[capacity * levels];
+        mSizes = new int[levels];
+        mWeights = new long[levels];
+        for (int l = 0; l < levels; l++) {
+            mWeights[l] = 1L << l;
+        }
+        mScratchValues = new float[capacity * levels];
+        mScratchWeights = new long[capacity * levels];
+    }
+
+    public void add(float value) {
+        if (value != value) {
+            return;
+        }
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+        mCount++;
+        mItems[mSizes[0]++] = value;
+        for (int l = 0; l < mLevels && mSizes[l] == mCapacity; l++) {
+            compact(l);
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public float getMin() {
+        return mMin;
+    }
+
+    public float getMax() {
+        return mMax;
+    }
+
+    /**
+     * @param q quantile in [0, 1].
+     * @return estimated value of the quantile, or NaN if the sketch is empty.
+     */
+    public float quantile(float q) {
+        if (mCount == 0) {
+            return Float.NaN;
+        }
+        if (q <= 0.0f) {
+            return mMin;
+        }
+        if (q >= 1.0f) {
+            return mMax;
+        }
+        final float[] values = mScratchValues;
+        final long[] weights = mScratchWeights;
+        int n = 0;
+        long total = 0L;
+        for (int l = 0; l < mLevels; l++) {
+            final int base = l * mCapacity;
+            for (int i = 0; i < mSizes[l]; i++) {
+                values[n] = mItems[base + i];
+                weights[n] = mWeights[l];
+                total += mWeights[l];
+                n++;
+            }
+        }
+        sort(values, weights, n);
+        final long rank = (long) (q * total);
+        long cumulative = 0L;
+        for (int i = 0; i < n; i++) {
+            cumulative += weights[i];
+            if (cumulative > rank) {
+                return values[i];
+            }
+        }
+        return values[n - 1];
+    }
+
+    public void clear() {
+        Arrays.fill(mSizes, 0);
+        for (int l = 0; l < mLevels; l++) {
+            mWeights[l] = 1L << l;
+        }
+        mCount = 0L;
+        mMin = Float.POSITIVE_INFINITY;
+        mMax = Float.NEGATIVE_INFINITY;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt(mCapacity);
+        out.writeInt(mLevels);
+        out.writeLong(mCount);
+        out.writeFloat(mMin);
+        out.writeFloat(mMax);
+        for (int l = 0; l < mLevels; l++) {
+            out.writeLong(mWeights[l]);
+            out.writeInt(mSizes[l]);
+            final int base = l * mCapacity;
+            for (int i = 0; i < mSizes[l]; i++) {
+                out.writeFloat(mItems[base + i]);
+            }
+        }
+    }
+
+    /**
+     * restore the state written by {@link #writeTo(DataOutputStream)}.
+     * @throws IOException if the data is broken or the shape of the sketch differs.
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+        final int version = in.readInt();
+        final int capacity = in.readInt();
+        final int levels = in.readInt();
+        if (version != VERSION || capacity != mCapacity || levels != mLevels) {
+            throw new IOException("incompatible sketch : version " + version + ", " + capacity + " x " + levels);
+        }
+        mCount = in.readLong();
+        mMin = in.readFloat();
+        mMax = in.readFloat();
+        for (int l = 0; l < mLevels; l++) {
+            mWeights[l] = in.readLong();
+            final int size = in.readInt();
+            if (size < 0 || size >= mCapacity) {
+                throw new IOException("broken sketch : level " + l + " has " + size + " items");
+            }
+            mSizes[l] = size;
+            final int base = l * mCapacity;
+            for (int i = 0; i < size; i++) {
+                mItems[base + i] = in.readFloat();
+            }
+        }
+    }
+
+    private void compact(int level) {
+        final int base = level * mCapacity;
+        Arrays.sort(mItems, base, base + mCapacity);
+        final int offset = nextBit();
+        // levels above 0 only receive halves of a level, so their size is 0 or capacity / 2 here.
+        if (level + 1 < mLevels && mWeights[level + 1] == 2L * mWeights[level]) {
+            int to = (level + 1) * mCapacity + mSizes[level + 1];
+            for (int i = offset; i < mCapacity; i += 2) {
+                mItems[to++] = mItems[base + i];
+            }
+            mSizes[level + 1] += mCapacity / 2;
+            mSizes[level] = 0;
+        } else {
+            // top level (or the next level has diverged): compact in place and double the weight.
+            int to = base;
+            for (int i = offset; i < mCapacity; i += 2) {
+                mItems[to++] = mItems[base + i];
+            }
+            mSizes[level] = mCapacity / 2;
+            mWeights[level] *= 2L;
+        }
+    }
+
+    private int nextBit() {
+        // xorshift32.
+        int x = mRandom;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mRandom = x;
+        return x & 1;
+    }
+
+    // shell sort of values with their weights.
+    private static void sort(float[] values, long[] weights, int n) {
+        int gap = 1;
+        while (gap < n / 3) {
+            gap = gap * 3 + 1;
+        }
+        for (; gap > 0; gap /= 3) {
+            for (int i = gap; i < n; i++) {
+                final float value = values[i];
+                final long weight = weights[i];
+                int j = i;
+                while (j >= gap && values[j - gap] > value) {
+                    values[j] = values[j - gap];
+                    weights[j] = weights[j - gap];
+                    j -= gap;
+                }
+                values[j] = value;
+                weights[j] = weight;
+            }
+        }
+    }
+}
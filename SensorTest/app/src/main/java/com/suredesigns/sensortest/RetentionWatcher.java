@@ -0,0 +1,168 @@
+package com.suredesigns.sensortest;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * checks that objects which should be garbage (e.g. an Activity after onDestroy) are collected.
+ *
+ * {@link #watch(Object, String)} keeps a weak reference to the object. {@link #check()} runs the garbage
+ * collector and reports the objects still reachable, which are leaked by a strong reference
+ * (e.g. the static TiltSensorEvent holding the view of a destroyed Activity).
+ *
+ * usage (debug builds):
+ * <pre>
+ *     // Activity.onDestroy
+ *     sRetentionWatcher.watch(this, "MainActivity");
+ *     // later, e.g. in the onCreate of the next Activity or from a dump
+ *     sRetentionWatcher.checkInBackground();
+ * </pre>
+ * {@link TiltSessionManager#setRetentionWatcher(RetentionWatcher)} does the same for the views of its sessions.
+ */
+public final class RetentionWatcher {
+    public static final String TAG = RetentionWatcher.class.getSimpleName();
+
+    private static final int MAX_WATCHED = 32;
+    // time to wait for the collected references to be enqueued [ms].
+    private static final long ENQUEUE_TIMEOUT = 100L;
+
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<Object>();
+    private final Watched[] mWatched = new Watched[MAX_WATCHED];
+    private int mCount;
+    private long mCollected;
+    // number of the calls of watch(), which orders the watched objects.
+    private long mSequence;
+
+    private static final class Watched extends WeakReference<Object> {
+        final String description;
+        final long sequence;
+
+        Watched(Object referent, String description, long sequence, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.description = description;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * @param description name of the object in the report.
+     */
+    public synchronized void watch(Object object, String description) {
+        if (object == null) {
+            throw new IllegalArgumentException("object must not be null");
+        }
+        poll();
+        if (mCount == MAX_WATCHED) {
+            throw new IllegalStateException("too many watched objects : " + MAX_WATCHED);
+        }
+        mWatched[mCount++] = new Watched(object, description, mSequence++, mQueue);
+    }
+
+    /**
+     * run the garbage collector and count the watched objects still reachable.
+     * it blocks for the collection (and up to ENQUEUE_TIMEOUT per collected object), so do not call it
+     * on the main thread; {@link #checkInBackground()} does it on a thread of its own.
+     * @return number of the retained objects.
+     */
+    public int check() {
+        final long limit;
+        synchronized (this) {
+            limit = mSequence;
+        }
+        return check(limit);
+    }
+
+    /**
+     * {@link #check()} on a background thread. only the objects watched before this call are checked,
+     * so the objects watched right after it (e.g. the views of the Activity being destroyed) are not reported.
+     * the retained objects are logged.
+     */
+    public void checkInBackground() {
+        final long limit;
+        synchronized (this) {
+            limit = mSequence;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                check(limit);
+            }
+        }, TAG).start();
+    }
+
+    // the lock is not held during the collection, so watch() is never blocked by a check.
+    private int check(long limit) {
+        Runtime.getRuntime().gc();
+        System.runFinalization();
+        Runtime.getRuntime().gc();
+        // the references are enqueued asynchronously after the collection.
+        try {
+            Object reference;
+            while (countBefore(limit) > 0 && (reference = mQueue.remove(ENQUEUE_TIMEOUT)) != null) {
+                synchronized (this) {
+                    remove(reference);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            int retained = 0;
+            for (int i = 0; i < mCount; i++) {
+                if (mWatched[i].sequence < limit) {
+                    Log.w(TAG, "retained : " + mWatched[i].description);
+                    retained++;
+                }
+            }
+            return retained;
+        }
+    }
+
+    private synchronized int countBefore(long limit) {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mWatched[i].sequence < limit) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of the watched objects which have been collected.
+     */
+    public synchronized long getCollectedCount() {
+        poll();
+        return mCollected;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        poll();
+        writer.println(prefix + "watched objects : collected " + mCollected + ", pending " + mCount);
+        for (int i = 0; i < mCount; i++) {
+            writer.println(prefix + "  " + mWatched[i].description);
+        }
+    }
+
+    // remove the collected references from the array.
+    private void poll() {
+        Object reference;
+        while ((reference = mQueue.poll()) != null) {
+            remove(reference);
+        }
+    }
+
+    private void remove(Object reference) {
+        for (int i = 0; i < mCount; i++) {
+            if (mWatched[i] == reference) {
+                mWatched[i] = mWatched[--mCount];
+                mWatched[mCount] = null;
+                mCollected++;
+                return;
+            }
+        }
+    }
+}
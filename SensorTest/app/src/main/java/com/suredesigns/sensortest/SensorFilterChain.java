@@ -0,0 +1,231 @@
+package com.suredesigns.sensortest;
+
+/**
+ * ordered chain of filter stages applied in place to a sensor sample.
+ *
+ * stages are held in arrays typed by their concrete (final) class and dispatched by a switch on the stage kind,
+ * so every call in {@link #filter(float[], long)} is monomorphic and nothing is allocated per sample.
+ *
+ * the cost of each stage is measured every {@link #setCostSamplingInterval(int) N}th sample,
+ * so the latency-versus-noise trade-off can be tuned per device model.
+ */
+public final class SensorFilterChain implements GravityFilter {
+    public static final int STAGE_MEDIAN3 = 0;
+    public static final int STAGE_LOW_PASS = 1;
+    public static final int STAGE_ONE_EURO = 2;
+    public static final int STAGE_KALMAN = 3;
+
+    public static final int MAX_STAGES = 8;
+    public static final int DEFAULT_COST_SAMPLING_INTERVAL = 64;
+
+    private final int mAxes;
+    private final float[] mRestoreBuffer;
+    private final int[] mKinds = new int[MAX_STAGES];
+    private final MedianFilter3[] mMedians = new MedianFilter3[MAX_STAGES];
+    private final LowPassFilter[] mLowPasses = new LowPassFilter[MAX_STAGES];
+    private final OneEuroFilter[] mOneEuros = new OneEuroFilter[MAX_STAGES];
+    private final KalmanFilter[] mKalmans = new KalmanFilter[MAX_STAGES];
+    private int mStageCount;
+
+    private final long[] mCostNanos = new long[MAX_STAGES];
+    private final long[] mMaxCostNanos = new long[MAX_STAGES];
+    private int mCostSamples;
+    private int mCostSamplingInterval = DEFAULT_COST_SAMPLING_INTERVAL;
+    private int mSampleCounter;
+
+    public SensorFilterChain(int axes) {
+        mAxes = axes;
+        mRestoreBuffer = new float[axes];
+    }
+
+    /**
+     * chain of the low-pass filter of {@link TiltSensorEvent#updateGravitation(float[])} (0.8f) alone,
+     * which is the filter of a {@link TiltSession} unless another chain is set. a chain set to the session
+     * replaces this one, so it decides whether the samples are low-passed at all.
+     */
+    public static SensorFilterChain createDefault(int axes) {
+        final SensorFilterChain chain = new SensorFilterChain(axes);
+        chain.addLowPass(LowPassFilter.DEFAULT_FACTOR);
+        return chain;
+    }
+
+    public int addMedian3() {
+        final int index = nextStage(STAGE_MEDIAN3);
+        mMedians[index] = new MedianFilter3(mAxes);
+        return index;
+    }
+
+    public int addLowPass(float factor) {
+        final int index = nextStage(STAGE_LOW_PASS);
+        mLowPasses[index] = new LowPassFilter(mAxes, factor);
+        return index;
+    }
+
+    public int addOneEuro(float minCutoff, float beta) {
+        final int index = nextStage(STAGE_ONE_EURO);
+        mOneEuros[index] = new OneEuroFilter(mAxes, minCutoff, beta);
+        return index;
+    }
+
+    public int addKalman(float processNoise, float measurementNoise) {
+        final int index = nextStage(STAGE_KALMAN);
+        mKalmans[index] = new KalmanFilter(mAxes, processNoise, measurementNoise);
+        return index;
+    }
+
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    public int getStageKind(int index) {
+        checkIndex(index);
+        return mKinds[index];
+    }
+
+    public OneEuroFilter getOneEuro(int index) {
+        checkIndex(index);
+        return mOneEuros[index];
+    }
+
+    public KalmanFilter getKalman(int index) {
+        checkIndex(index);
+        return mKalmans[index];
+    }
+
+    public LowPassFilter getLowPass(int index) {
+        checkIndex(index);
+        return mLowPasses[index];
+    }
+
+    public void setCostSamplingInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive : " + interval);
+        }
+        mCostSamplingInterval = interval;
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        final int count = mStageCount;
+        if (++mSampleCounter < mCostSamplingInterval) {
+            for (int i = 0; i < count; i++) {
+                runStage(i, values, timestamp);
+            }
+            return;
+        }
+        mSampleCounter = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            runStage(i, values, timestamp);
+            final long end = System.nanoTime();
+            final long cost = end - start;
+            mCostNanos[i] += cost;
+            if (cost > mMaxCostNanos[i]) {
+                mMaxCostNanos[i] = cost;
+            }
+            start = end;
+        }
+        mCostSamples++;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < mStageCount; i++) {
+            switch (mKinds[i]) {
+                case STAGE_MEDIAN3:
+                    mMedians[i].reset();
+                    break;
+                case STAGE_LOW_PASS:
+                    mLowPasses[i].reset();
+                    break;
+                case STAGE_ONE_EURO:
+                    mOneEuros[i].reset();
+                    break;
+                case STAGE_KALMAN:
+                    mKalmans[i].reset();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * restore the state of every stage from the last filtered value (e.g. after the sensor was suspended),
+     * instead of starting over from the next sample.
+     */
+    public void restore(float[] value, long timestamp) {
+        reset();
+        System.arraycopy(value, 0, mRestoreBuffer, 0, mAxes);
+        for (int i = 0; i < mStageCount; i++) {
+            runStage(i, mRestoreBuffer, timestamp);
+        }
+    }
+
+    /**
+     * @return mean cost of the stage in nanoseconds over the sampled calls.
+     */
+    public long getStageMeanCostNanos(int index) {
+        checkIndex(index);
+        return mCostSamples == 0 ? 0L : mCostNanos[index] / mCostSamples;
+    }
+
+    public long getStageMaxCostNanos(int index) {
+        checkIndex(index);
+        return mMaxCostNanos[index];
+    }
+
+    public void resetCosts() {
+        for (int i = 0; i < MAX_STAGES; i++) {
+            mCostNanos[i] = 0L;
+            mMaxCostNanos[i] = 0L;
+        }
+        mCostSamples = 0;
+        mSampleCounter = 0;
+    }
+
+    public static String stageNameOf(int kind) {
+        switch (kind) {
+            case STAGE_MEDIAN3:
+                return "median3";
+            case STAGE_LOW_PASS:
+                return "low-pass";
+            case STAGE_ONE_EURO:
+                return "one-euro";
+            case STAGE_KALMAN:
+                return "kalman";
+            default:
+                return "unknown";
+        }
+    }
+
+    private void runStage(int index, float[] values, long timestamp) {
+        switch (mKinds[index]) {
+            case STAGE_MEDIAN3:
+                mMedians[index].filter(values, timestamp);
+                break;
+            case STAGE_LOW_PASS:
+                mLowPasses[index].filter(values, timestamp);
+                break;
+            case STAGE_ONE_EURO:
+                mOneEuros[index].filter(values, timestamp);
+                break;
+            case STAGE_KALMAN:
+                mKalmans[index].filter(values, timestamp);
+                break;
+        }
+    }
+
+    private int nextStage(int kind) {
+        if (mStageCount >= MAX_STAGES) {
+            throw new IllegalStateException("too many stages : " + MAX_STAGES);
+        }
+        final int index = mStageCount++;
+        mKinds[index] = kind;
+        return index;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mStageCount) {
+            throw new IndexOutOfBoundsException("stage " + index + " of " + mStageCount);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.suredesigns.sensortest;
+
+import java.io.PrintWriter;
+
+/**
+ * streaming analyzer of the delivery of a sensor against the requested period.
+ *
+ * the intervals between the timestamps of the samples are summarized by their mean and variance
+ * (over all the samples and over a moving window), and counted as bursts (shorter than half the period,
+ * e.g. samples queued in the FIFO of the sensor hub) or gaps (longer than twice the period, missed samples).
+ *
+ * the device is regarded as nonconforming when the moving mean of the interval has stayed out of the tolerance
+ * of the requested period for a window of samples; it conforms again when the mean comes back within half
+ * of the tolerance. the cost per sample is constant and nothing is allocated.
+ */
+public final class SensorRateAnalyzer {
+    /** the moving mean of the interval is within the tolerance of the requested period. */
+    public static final int CONFORMING = 0;
+    /** the samples arrive slower than requested. */
+    public static final int SLOW = 1;
+    /** the samples arrive faster than requested. */
+    public static final int FAST = 2;
+
+    /** default tolerance of the mean interval, relative to the requested period. */
+    public static final float DEFAULT_TOLERANCE = 0.25f;
+    /** default number of the intervals of the moving window. */
+    public static final int DEFAULT_WINDOW = 64;
+
+    private static final float BURST_RATIO = 0.5f;
+    private static final float GAP_RATIO = 2.0f;
+
+    private long mRequestedPeriod;
+    private final float mTolerance;
+    private final int mWindow;
+    private final float mAlpha;
+
+    private long mLastTimestamp;
+    private boolean mHasLast;
+    private long mCount;
+    private double mMean;
+    private double mM2;
+    private float mWindowMean;
+    private float mWindowVariance;
+    private long mBursts;
+    private long mGaps;
+    // consecutive intervals with the moving mean out of the tolerance.
+    private int mOutOfTolerance;
+    private int mConformance = CONFORMING;
+
+    /**
+     * @param requestedPeriod requested interval of the samples [ns].
+     */
+    public SensorRateAnalyzer(long requestedPeriod) {
+        this(requestedPeriod, DEFAULT_TOLERANCE, DEFAULT_WINDOW);
+    }
+
+    public SensorRateAnalyzer(long requestedPeriod, float tolerance, int window) {
+        if (tolerance <= 0.0f) {
+            throw new IllegalArgumentException("tolerance must be positive : " + tolerance);
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive : " + window);
+        }
+        mTolerance = tolerance;
+        mWindow = window;
+        mAlpha = 2.0f / (window + 1);
+        setRequestedPeriod(requestedPeriod);
+    }
+
+    /**
+     * change the requested period (e.g. after the sensor is registered with another rate). the statistics are reset.
+     */
+    public void setRequestedPeriod(long requestedPeriod) {
+        if (requestedPeriod <= 0L) {
+            throw new IllegalArgumentException("requested period must be positive : " + requestedPeriod);
+        }
+        mRequestedPeriod = requestedPeriod;
+        reset();
+    }
+
+    public long getRequestedPeriod() {
+        return mRequestedPeriod;
+    }
+
+    /**
+     * @param timestamp SensorEvent.timestamp [ns].
+     * @return true if the conformance changed with this sample.
+     */
+    public boolean update(long timestamp) {
+        if (!mHasLast) {
+            mHasLast = true;
+            mLastTimestamp = timestamp;
+            return false;
+        }
+        final long interval = timestamp - mLastTimestamp;
+        mLastTimestamp = timestamp;
+        final long period = mRequestedPeriod;
+        if (interval < period * BURST_RATIO) {
+            mBursts++;
+        } else if (interval > period * GAP_RATIO) {
+            mGaps++;
+        }
+
+        // Welford's online mean and variance.
+        mCount++;
+        final double delta = interval - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (interval - mMean);
+
+        if (mCount == 1L) {
+            mWindowMean = interval;
+            mWindowVariance = 0.0f;
+        } else {
+            final float windowDelta = interval - mWindowMean;
+            mWindowMean += mAlpha * windowDelta;
+            mWindowVariance = (1.0f - mAlpha) * (mWindowVariance + mAlpha * windowDelta * windowDelta);
+        }
+        return updateConformance();
+    }
+
+    /**
+     * forget the last timestamp, so that a pause of the sensor (e.g. suspension) is not counted as a gap.
+     */
+    public void restart() {
+        mHasLast = false;
+    }
+
+    public void reset() {
+        mHasLast = false;
+        mCount = 0L;
+        mMean = 0.0;
+        mM2 = 0.0;
+        mWindowMean = 0.0f;
+        mWindowVariance = 0.0f;
+        mBursts = 0L;
+        mGaps = 0L;
+        mOutOfTolerance = 0;
+        mConformance = CONFORMING;
+    }
+
+    /**
+     * @return CONFORMING, SLOW or FAST.
+     */
+    public int getConformance() {
+        return mConformance;
+    }
+
+    public boolean isConforming() {
+        return mConformance == CONFORMING;
+    }
+
+    public long getIntervalCount() {
+        return mCount;
+    }
+
+    /**
+     * @return mean interval over all the samples [ns].
+     */
+    public double getMeanInterval() {
+        return mMean;
+    }
+
+    /**
+     * @return standard deviation of the interval over all the samples [ns].
+     */
+    public double getIntervalStdDev() {
+        return mCount < 2L ? 0.0 : Math.sqrt(mM2 / (mCount - 1));
+    }
+
+    /**
+     * @return mean interval over the moving window [ns], the period the device actually delivers.
+     */
+    public float getMeasuredPeriod() {
+        return mWindowMean;
+    }
+
+    /**
+     * @return standard deviation of the interval over the moving window [ns].
+     */
+    public float getJitter() {
+        return (float) Math.sqrt(mWindowVariance);
+    }
+
+    public long getBurstCount() {
+        return mBursts;
+    }
+
+    public long getGapCount() {
+        return mGaps;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "sensor rate : requested " + mRequestedPeriod / 1000L + " us, measured "
+                + (long) mWindowMean / 1000L + " +- " + (long) getJitter() / 1000L + " us, "
+                + conformanceToString(mConformance));
+        writer.println(prefix + "  intervals " + mCount + ", mean " + (long) mMean / 1000L + " +- "
+                + (long) getIntervalStdDev() / 1000L + " us, bursts " + mBursts + ", gaps " + mGaps);
+    }
+
+    public static String conformanceToString(int conformance) {
+        switch (conformance) {
+            case CONFORMING:
+                return "conforming";
+            case SLOW:
+                return "slow";
+            case FAST:
+                return "fast";
+            default:
+                return "unknown : " + conformance;
+        }
+    }
+
+    private boolean updateConformance() {
+        final float ratio = mWindowMean / mRequestedPeriod - 1.0f;
+        final int previous = mConformance;
+        if (previous == CONFORMING) {
+            if (Math.abs(ratio) > mTolerance) {
+                if (++mOutOfTolerance >= mWindow) {
+                    mConformance = ratio > 0.0f ? SLOW : FAST;
+                }
+            } else {
+                mOutOfTolerance = 0;
+            }
+        } else if (Math.abs(ratio) <= mTolerance * 0.5f) {
+            mConformance = CONFORMING;
+            mOutOfTolerance = 0;
+        } else {
+            mConformance = ratio > 0.0f ? SLOW : FAST;
+        }
+        return mConformance != previous;
+    }
+}
@@ -0,0 +1,233 @@
+package com.suredesigns.sensortest;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * unregisters the gravity sensor while the device lies still, and re-registers it on motion.
+ *
+ * call {@link #onGravitySample(float[], long)} from onSensorChanged of the gravity listener.
+ * when {@link StillnessDetector} reports stillness, the gravity listener is unregistered and
+ * a one-shot TYPE_SIGNIFICANT_MOTION trigger is requested. on devices without the trigger
+ * (or before API 18), the accelerometer is registered at SENSOR_DELAY_NORMAL instead and
+ * a sample out of the tolerance wakes the gravity sensor up. on devices with neither of them,
+ * nothing could wake the gravity sensor up, so the suspension is disabled.
+ *
+ * the last gravity sample is kept, and handed to {@link Callback#onResumed(float[], long)}
+ * so that the filter state of the engine can be restored instead of recalibrated.
+ */
+public final class SensorSuspender {
+    public static final String TAG = SensorSuspender.class.getSimpleName();
+
+    /** callback of the suspension state. */
+    public interface Callback {
+        public void onSuspended();
+
+        /**
+         * @param lastGravity last gravity sample before the suspension.
+         * @param lastTimestamp timestamp of the sample in nanoseconds.
+         */
+        public void onResumed(float[] lastGravity, long lastTimestamp);
+    }
+
+    private static final int AXES = 3;
+    // tolerance of the accelerometer fallback, larger than the one of the gravity sensor as it includes linear acceleration.
+    private static final float WAKE_TOLERANCE_SQUARED = 0.05f * 0.05f;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mGravitySensor;
+    private final Sensor mSignificantMotionSensor;
+    private final Sensor mAccelerometer;
+    private final SensorEventListener mGravityListener;
+    private final StillnessDetector mStillnessDetector;
+    private final float[] mLastGravity = new float[AXES];
+    private final float[] mFallbackAnchor = new float[AXES];
+    private boolean mFallbackAnchored;
+    private long mLastTimestamp;
+    private int mDelayRate;
+    private boolean mSuspended;
+    private boolean mEnabled = true;
+    private Callback mCallback;
+
+    private final SensorEventListener mFallbackListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onFallbackSample(event.values, event.timestamp);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final Object mTriggerListener;
+    // false if there is neither the trigger nor the accelerometer.
+    private final boolean mAvailable;
+
+    public SensorSuspender(SensorManager sensorManager, Sensor gravitySensor,
+                           SensorEventListener gravityListener, int delayRate) {
+        mSensorManager = sensorManager;
+        mGravitySensor = gravitySensor;
+        mGravityListener = gravityListener;
+        mDelayRate = delayRate;
+        mStillnessDetector = new StillnessDetector(AXES);
+        mAccelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            mSignificantMotionSensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+            mTriggerListener = mSignificantMotionSensor == null ? null : createTriggerListener();
+        } else {
+            mSignificantMotionSensor = null;
+            mTriggerListener = null;
+        }
+        mAvailable = mTriggerListener != null || mAccelerometer != null;
+        if (!mAvailable) {
+            Log.w(TAG, "no significant motion sensor nor accelerometer, suspension disabled");
+            mEnabled = false;
+        }
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    public void setQuietPeriod(long quietPeriodNs) {
+        mStillnessDetector.setQuietPeriod(quietPeriodNs);
+    }
+
+    public void setDelayRate(int delayRate) {
+        mDelayRate = delayRate;
+    }
+
+    /**
+     * @return false if the device has no sensor to wake the gravity sensor up (setEnabled(true) is ignored).
+     */
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled && mAvailable;
+        if (!enabled && mSuspended) {
+            resume();
+        }
+        mStillnessDetector.reset();
+    }
+
+    public boolean isSuspended() {
+        return mSuspended;
+    }
+
+    /**
+     * @return true if the gravity sensor has been suspended by this sample.
+     */
+    public boolean onGravitySample(float[] values, long timestamp) {
+        if (!mEnabled || mSuspended) {
+            return false;
+        }
+        System.arraycopy(values, 0, mLastGravity, 0, AXES);
+        mLastTimestamp = timestamp;
+        return mStillnessDetector.update(values, timestamp) && suspend();
+    }
+
+    /**
+     * unregister every listener of this object (e.g. in onDestroy of the service).
+     */
+    public void release() {
+        mSensorManager.unregisterListener(mFallbackListener);
+        cancelTrigger();
+        mSuspended = false;
+    }
+
+    // the wake-up is registered first: the gravity sensor is kept if nothing could wake it up.
+    private boolean suspend() {
+        mSuspended = true;
+        if (!requestTrigger()) {
+            mFallbackAnchored = false;
+            if (mAccelerometer == null || !mSensorManager.registerListener(mFallbackListener, mAccelerometer,
+                    SensorManager.SENSOR_DELAY_NORMAL)) {
+                mSuspended = false;
+                mEnabled = false;
+                mStillnessDetector.reset();
+                Log.w(TAG, "no wake-up sensor could be registered, suspension disabled");
+                return false;
+            }
+        }
+        mSensorManager.unregisterListener(mGravityListener);
+        Log.d(TAG, "gravity sensor suspended");
+        if (mCallback != null) {
+            mCallback.onSuspended();
+        }
+        return true;
+    }
+
+    private void resume() {
+        if (!mSuspended) {
+            return;
+        }
+        mSensorManager.unregisterListener(mFallbackListener);
+        cancelTrigger();
+        mSuspended = false;
+        mStillnessDetector.reset();
+        mSensorManager.registerListener(mGravityListener, mGravitySensor, mDelayRate);
+        Log.d(TAG, "gravity sensor resumed");
+        if (mCallback != null) {
+            mCallback.onResumed(mLastGravity, mLastTimestamp);
+        }
+    }
+
+    private void onFallbackSample(float[] values, long timestamp) {
+        // compare the direction only, as the gravity sensor does.
+        final float norm = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        if (norm == 0.0f) {
+            return;
+        }
+        final float invNorm = 1.0f / norm;
+        if (!mFallbackAnchored) {
+            for (int i = 0; i < AXES; i++) {
+                mFallbackAnchor[i] = values[i] * invNorm;
+            }
+            mFallbackAnchored = true;
+            return;
+        }
+        float distanceSquared = 0.0f;
+        for (int i = 0; i < AXES; i++) {
+            final float d = values[i] * invNorm - mFallbackAnchor[i];
+            distanceSquared += d * d;
+        }
+        if (distanceSquared > WAKE_TOLERANCE_SQUARED) {
+            resume();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private Object createTriggerListener() {
+        return new TriggerEventListener() {
+            @Override
+            public void onTrigger(TriggerEvent event) {
+                resume();
+            }
+        };
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private boolean requestTrigger() {
+        if (mTriggerListener == null) {
+            return false;
+        }
+        return mSensorManager.requestTriggerSensor((TriggerEventListener) mTriggerListener, mSignificantMotionSensor);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void cancelTrigger() {
+        if (mTriggerListener != null) {
+            mSensorManager.cancelTriggerSensor((TriggerEventListener) mTriggerListener, mSignificantMotionSensor);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.suredesigns.sensortest;
+
+/**
+ * streaming shake detector over a fixed-size window of tilt samples.
+ *
+ * {@link TiltSensorEvent#detectFlingAndShake(float[])} compares only the current tilt with the previous one.
+ * this class keeps, per axis, a running sum of the squared angular deltas over the last N samples
+ * in a circular buffer, so an update costs O(1) regardless of N and nothing is allocated.
+ *
+ * the squared angular delta is estimated as d^2 / (1 - t^2) (t = sin of the tilt angle),
+ * which is the metric of detectFlingAndShake, so that a window of 1 sample gives the same decision.
+ * the result is given as SHAKE_LEFT/RIGHT/FORWARD/BACK bits of {@link TiltSensorEvent}.
+ */
+public final class ShakeDetector {
+    public static final int DEFAULT_WINDOW_SIZE = 4;
+
+    private static final float SHAKE_THRESHOLD_LEFT = 0.35f;
+    private static final float SHAKE_THRESHOLD_RIGHT = 0.35f;
+    private static final float SHAKE_THRESHOLD_FORWARD = 0.24f;
+    private static final float SHAKE_THRESHOLD_BACK = 0.21f;
+    private static final float MAX_TILT = 0.99999f;
+
+    // index 0 : forward(-) / back(+), index 1 : left(-) / right(+) (same as getTiltVector()).
+    private final float[] mEnergyX;
+    private final float[] mEnergyY;
+    private final float[] mDeltaX;
+    private final float[] mDeltaY;
+    private final int mWindowSize;
+    private int mIndex;
+    private int mCount;
+    private float mSumEnergyX;
+    private float mSumEnergyY;
+    private float mSumDeltaX;
+    private float mSumDeltaY;
+    private float mPrevTiltX;
+    private float mPrevTiltY;
+    private boolean mInitialized;
+    // samples since the running sums were recomputed (to bound the accumulated rounding error).
+    private int mSinceRecompute;
+
+    private float mThresholdLeft = SHAKE_THRESHOLD_LEFT * SHAKE_THRESHOLD_LEFT;
+    private float mThresholdRight = SHAKE_THRESHOLD_RIGHT * SHAKE_THRESHOLD_RIGHT;
+    private float mThresholdForward = SHAKE_THRESHOLD_FORWARD * SHAKE_THRESHOLD_FORWARD;
+    private float mThresholdBack = SHAKE_THRESHOLD_BACK * SHAKE_THRESHOLD_BACK;
+
+    private int mShakeState;
+
+    public ShakeDetector() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public ShakeDetector(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("window size must be positive : " + windowSize);
+        }
+        mWindowSize = windowSize;
+        mEnergyX = new float[windowSize];
+        mEnergyY = new float[windowSize];
+        mDeltaX = new float[windowSize];
+        mDeltaY = new float[windowSize];
+    }
+
+    /**
+     * set the thresholds of the angular travel (not squared) in the window.
+     */
+    public void setThresholds(float left, float right, float forward, float back) {
+        mThresholdLeft = left * left;
+        mThresholdRight = right * right;
+        mThresholdForward = forward * forward;
+        mThresholdBack = back * back;
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * @param tilt tilt vector (i.e. {@link TiltSensorEvent#getTiltVector()}).
+     * @return SHAKE_* bits of the current window.
+     */
+    public int update(float[] tilt) {
+        final float tiltX = clampTilt(tilt[0]);
+        final float tiltY = clampTilt(tilt[1]);
+        if (!mInitialized) {
+            mPrevTiltX = tiltX;
+            mPrevTiltY = tiltY;
+            mInitialized = true;
+            return mShakeState = TiltSensorEvent.FLING_NONE;
+        }
+        final float dx = tiltX - mPrevTiltX;
+        final float dy = tiltY - mPrevTiltY;
+        mPrevTiltX = tiltX;
+        mPrevTiltY = tiltY;
+        final float energyX = dx * dx / (1.0f - tiltX * tiltX);
+        final float energyY = dy * dy / (1.0f - tiltY * tiltY);
+
+        final int index = mIndex;
+        if (mCount == mWindowSize) {
+            mSumEnergyX -= mEnergyX[index];
+            mSumEnergyY -= mEnergyY[index];
+            mSumDeltaX -= mDeltaX[index];
+            mSumDeltaY -= mDeltaY[index];
+        } else {
+            mCount++;
+        }
+        mEnergyX[index] = energyX;
+        mEnergyY[index] = energyY;
+        mDeltaX[index] = dx;
+        mDeltaY[index] = dy;
+        mSumEnergyX += energyX;
+        mSumEnergyY += energyY;
+        mSumDeltaX += dx;
+        mSumDeltaY += dy;
+        mIndex = index + 1 == mWindowSize ? 0 : index + 1;
+
+        if (++mSinceRecompute >= 1024) {
+            recompute();
+        }
+
+        int state = TiltSensorEvent.FLING_NONE;
+        // direction is the net motion of the window, or the latest motion if the window oscillates.
+        final float directionX = mSumDeltaX != 0.0f ? mSumDeltaX : dx;
+        final float directionY = mSumDeltaY != 0.0f ? mSumDeltaY : dy;
+        if (directionY < 0.0f && mSumEnergyY > mThresholdLeft) {
+            state |= TiltSensorEvent.SHAKE_LEFT;
+        } else if (directionY > 0.0f && mSumEnergyY > mThresholdRight) {
+            state |= TiltSensorEvent.SHAKE_RIGHT;
+        }
+        if (directionX < 0.0f && mSumEnergyX > mThresholdForward) {
+            state |= TiltSensorEvent.SHAKE_FORWARD;
+        } else if (directionX > 0.0f && mSumEnergyX > mThresholdBack) {
+            state |= TiltSensorEvent.SHAKE_BACK;
+        }
+        return mShakeState = state;
+    }
+
+    /**
+     * @return sum of the squared angular deltas of the forward / back axis in the window.
+     */
+    public float getWindowEnergyX() {
+        return mSumEnergyX;
+    }
+
+    /**
+     * @return sum of the squared angular deltas of the left / right axis in the window.
+     */
+    public float getWindowEnergyY() {
+        return mSumEnergyY;
+    }
+
+    public int getShakeState() {
+        return mShakeState;
+    }
+
+    /**
+     * replace the SHAKE_* bits of the fling state with the result of this detector,
+     * with the rules of detectFlingAndShake: a fling is never replaced by a shake (the state is returned as is
+     * while a FLING_* bit is set), and a shake is kept only on the side the device is tilted to.
+     * @param direction TILT_* bits of the current sample.
+     */
+    public static int mergeInto(int flingState, int shakeState, int direction) {
+        if ((flingState & TiltSensorEvent.FLING_MASK) != 0) {
+            return flingState;
+        }
+        // SHAKE_LEFT/RIGHT/FORWARD/BACK are TILT_LEFT/RIGHT/FORWARD/BACK shifted by 4.
+        final int allowed = (direction << 4) & TiltSensorEvent.SHAKE_MASK;
+        return (flingState & ~TiltSensorEvent.SHAKE_MASK) | (shakeState & allowed);
+    }
+
+    public void reset() {
+        for (int i = 0; i < mWindowSize; i++) {
+            mEnergyX[i] = 0.0f;
+            mEnergyY[i] = 0.0f;
+            mDeltaX[i] = 0.0f;
+            mDeltaY[i] = 0.0f;
+        }
+        mIndex = 0;
+        mCount = 0;
+        mSumEnergyX = 0.0f;
+        mSumEnergyY = 0.0f;
+        mSumDeltaX = 0.0f;
+        mSumDeltaY = 0.0f;
+        mSinceRecompute = 0;
+        mInitialized = false;
+        mShakeState = TiltSensorEvent.FLING_NONE;
+    }
+
+    private void recompute() {
+        float energyX = 0.0f;
+        float energyY = 0.0f;
+        float deltaX = 0.0f;
+        float deltaY = 0.0f;
+        for (int i = 0; i < mCount; i++) {
+            energyX += mEnergyX[i];
+            energyY += mEnergyY[i];
+            deltaX += mDeltaX[i];
+            deltaY += mDeltaY[i];
+        }
+        mSumEnergyX = energyX;
+        mSumEnergyY = energyY;
+        mSumDeltaX = deltaX;
+        mSumDeltaY = deltaY;
+        mSinceRecompute = 0;
+    }
+
+    private static float clampTilt(float t) {
+        if (t > MAX_TILT) {
+            return MAX_TILT;
+        }
+        if (t < -MAX_TILT) {
+            return -MAX_TILT;
+        }
+        return t;
+    }
+}
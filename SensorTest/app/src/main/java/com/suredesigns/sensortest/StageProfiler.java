@@ -0,0 +1,206 @@
+package com.suredesigns.sensortest;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * sampled per-stage timing of the tilt pipeline.
+ *
+ * every Nth sample, the wall time (System.nanoTime) and the CPU time of the thread (Debug.threadCpuTimeNanos)
+ * are read at the start of the sample and at the end of each stage. the differences are added to
+ * running statistics (count, mean, variance and max) of the stage. on the other samples,
+ * {@link #mark(int)} is one branch.
+ *
+ * a stage ends with {@link #mark(int)}. if the sample ends before all the stages are marked
+ * (e.g. it is dropped while the reference changes), the time since the last mark is charged to the next stage.
+ *
+ * while {@link TiltTracer} is enabled, the end of each measured stage is also traced with its duration.
+ * both are read from SystemClock.elapsedRealtimeNanos, the clock of the timestamps of the tracer,
+ * so the stage is traced exactly where it ran (System.nanoTime may not share the origin of that clock).
+ *
+ * the profiler is used by one thread (the thread of the sensor listener). it allocates nothing.
+ */
+public final class StageProfiler {
+    /** normalization, filtering and updateGravitation. */
+    public static final int STAGE_FILTER = 0;
+    /** tilt vector, direction, gesture recognition and detectFlingAndShake. */
+    public static final int STAGE_CLASSIFY = 1;
+    /** updateVelocity / updatePointerPosition and the publication of the state. */
+    public static final int STAGE_INTEGRATE = 2;
+    /** checkBoundaryCondition and sendMotionEvent. */
+    public static final int STAGE_DISPATCH = 3;
+    public static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = {"filter", "classify", "integrate", "dispatch"};
+    private static final int WALL = 0;
+    private static final int CPU = 1;
+
+    private final int mSampleInterval;
+    private int mCountdown;
+    private boolean mActive;
+    private int mNextStage;
+    private long mLastWall;
+    private long mLastCpu;
+    // elapsedRealtimeNanos at the end of the last stage, or -1 if the sample is not traced.
+    private long mLastTrace = -1L;
+    private long mSamples;
+
+    // running statistics, indexed by stage * 2 + WALL / CPU.
+    private final long[] mCounts = new long[STAGE_COUNT * 2];
+    private final double[] mMeans = new double[STAGE_COUNT * 2];
+    private final double[] mM2 = new double[STAGE_COUNT * 2];
+    private final long[] mMax = new long[STAGE_COUNT * 2];
+
+    /**
+     * @param sampleInterval measure one sample in this many (1 measures every sample).
+     */
+    public StageProfiler(int sampleInterval) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("sampleInterval must be positive : " + sampleInterval);
+        }
+        mSampleInterval = sampleInterval;
+    }
+
+    public int getSampleInterval() {
+        return mSampleInterval;
+    }
+
+    /**
+     * call this at the start of every sample.
+     * @return true if the sample is measured.
+     */
+    public boolean beginSample() {
+        if (mCountdown > 0) {
+            mCountdown--;
+            mActive = false;
+            return false;
+        }
+        mCountdown = mSampleInterval - 1;
+        mActive = true;
+        mNextStage = STAGE_FILTER;
+        mLastCpu = Debug.threadCpuTimeNanos();
+        mLastWall = System.nanoTime();
+        mLastTrace = TiltTracer.isEnabled() ? SystemClock.elapsedRealtimeNanos() : -1L;
+        return true;
+    }
+
+    /**
+     * end of the stage in the current sample.
+     */
+    public void mark(int stage) {
+        if (!mActive) {
+            return;
+        }
+        final long wall = System.nanoTime();
+        final long cpu = Debug.threadCpuTimeNanos();
+        add(stage, wall - mLastWall, cpu - mLastCpu);
+        if (mLastTrace >= 0L && TiltTracer.isEnabled()) {
+            final long now = SystemClock.elapsedRealtimeNanos();
+            TiltTracer.traceAt(TiltTracer.EVENT_STAGE, now, stage, (int) Math.min(now - mLastTrace, Integer.MAX_VALUE));
+            mLastTrace = now;
+        }
+        mLastWall = wall;
+        mLastCpu = cpu;
+        mNextStage = stage + 1;
+    }
+
+    /**
+     * call this at the end of every sample.
+     */
+    public void endSample() {
+        if (!mActive) {
+            return;
+        }
+        if (mNextStage < STAGE_COUNT) {
+            mark(mNextStage);
+        }
+        mActive = false;
+        mSamples++;
+    }
+
+    /**
+     * @return number of the measured samples.
+     */
+    public long getSampleCount() {
+        return mSamples;
+    }
+
+    public long getStageCount(int stage) {
+        return mCounts[stage * 2 + WALL];
+    }
+
+    public float getMeanWallMicros(int stage) {
+        return (float) (mMeans[stage * 2 + WALL] * 1e-3);
+    }
+
+    public float getMeanCpuMicros(int stage) {
+        return (float) (mMeans[stage * 2 + CPU] * 1e-3);
+    }
+
+    public float getStdDevWallMicros(int stage) {
+        return stdDevOf(stage * 2 + WALL) * 1e-3f;
+    }
+
+    public float getMaxWallMicros(int stage) {
+        return mMax[stage * 2 + WALL] * 1e-3f;
+    }
+
+    public float getMaxCpuMicros(int stage) {
+        return mMax[stage * 2 + CPU] * 1e-3f;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STAGE_COUNT * 2; i++) {
+            mCounts[i] = 0L;
+            mMeans[i] = 0.0;
+            mM2[i] = 0.0;
+            mMax[i] = 0L;
+        }
+        mSamples = 0L;
+        mCountdown = 0;
+        mActive = false;
+    }
+
+    /**
+     * print the statistics, one stage per line.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "stage times (1 in " + mSampleInterval + " samples, " + mSamples + " measured) [us] :");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            writer.println(prefix + "  " + STAGE_NAMES[stage] + " : n " + getStageCount(stage)
+                    + ", wall " + getMeanWallMicros(stage) + " +- " + getStdDevWallMicros(stage)
+                    + " (max " + getMaxWallMicros(stage) + "), cpu " + getMeanCpuMicros(stage)
+                    + " (max " + getMaxCpuMicros(stage) + ")");
+        }
+    }
+
+    public static String stageToString(int stage) {
+        return stage >= 0 && stage < STAGE_COUNT ? STAGE_NAMES[stage] : "stage " + stage;
+    }
+
+    private void add(int stage, long wall, long cpu) {
+        update(stage * 2 + WALL, wall);
+        // threadCpuTimeNanos returns -1 where it is not supported.
+        if (mLastCpu >= 0L) {
+            update(stage * 2 + CPU, cpu);
+        }
+    }
+
+    // Welford's online mean and variance.
+    private void update(int index, long value) {
+        final long count = ++mCounts[index];
+        final double delta = value - mMeans[index];
+        mMeans[index] += delta / count;
+        mM2[index] += delta * (value - mMeans[index]);
+        if (value > mMax[index]) {
+            mMax[index] = value;
+        }
+    }
+
+    private float stdDevOf(int index) {
+        final long count = mCounts[index];
+        return count < 2L ? 0.0f : (float) Math.sqrt(mM2[index] / (count - 1));
+    }
+}
@@ -0,0 +1,122 @@
+package com.suredesigns.sensortest;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * timestamps of the startup of the tilt scrolling, from the initialization to the first scroll.
+ *
+ * each milestone keeps the time (SystemClock.elapsedRealtimeNanos) it was first reached after
+ * {@link #resetFrom(int)}, so the report shows which phase of a cold start is slow:
+ * initialization, start, sensor registration, first sample, first reference and first dispatched events.
+ *
+ * the milestones are marked on the main thread. a report from another thread may miss the latest milestone.
+ */
+public final class StartupMilestones {
+    /** TiltSensorEvent.initializeTiltService() returned (marked by the app). */
+    public static final int MILESTONE_INITIALIZE = 0;
+    /** start() of the host or the manager (startTiltSensorService). */
+    public static final int MILESTONE_START = 1;
+    /** the gravity sensor is registered (TiltSensorService.onCreate). */
+    public static final int MILESTONE_REGISTER = 2;
+    /** first onSensorChanged. */
+    public static final int MILESTONE_FIRST_SAMPLE = 3;
+    /** first changeReferencePoint. */
+    public static final int MILESTONE_FIRST_REFERENCE = 4;
+    /** first dispatched event (usually ACTION_DOWN). */
+    public static final int MILESTONE_FIRST_DISPATCH = 5;
+    /** first dispatched ACTION_MOVE, the first scroll. */
+    public static final int MILESTONE_FIRST_MOVE = 6;
+    public static final int MILESTONE_COUNT = 7;
+
+    private static final String[] NAMES = {
+            "initialize", "start", "register", "first sample", "first reference", "first dispatch", "first move",
+    };
+
+    // 0 if the milestone has not been reached.
+    private final long[] mNanos = new long[MILESTONE_COUNT];
+
+    /**
+     * mark the milestone now, if it has not been reached yet.
+     * @return true if the milestone was marked.
+     */
+    public boolean mark(int milestone) {
+        if (mNanos[milestone] != 0L) {
+            return false;
+        }
+        mNanos[milestone] = SystemClock.elapsedRealtimeNanos();
+        return true;
+    }
+
+    /**
+     * mark the milestone at the time, if it has not been reached yet.
+     * @param nanos SystemClock.elapsedRealtimeNanos() of the milestone.
+     */
+    public boolean markAt(int milestone, long nanos) {
+        if (mNanos[milestone] != 0L) {
+            return false;
+        }
+        mNanos[milestone] = nanos;
+        return true;
+    }
+
+    public boolean isMarked(int milestone) {
+        return mNanos[milestone] != 0L;
+    }
+
+    /**
+     * @return SystemClock.elapsedRealtimeNanos() of the milestone, or 0 if it has not been reached.
+     */
+    public long getNanos(int milestone) {
+        return mNanos[milestone];
+    }
+
+    /**
+     * @return time from a milestone to another [ms], or -1 if either has not been reached.
+     */
+    public float getMillis(int from, int to) {
+        final long start = mNanos[from];
+        final long end = mNanos[to];
+        if (start == 0L || end == 0L) {
+            return -1.0f;
+        }
+        return (end - start) * 1e-6f;
+    }
+
+    /**
+     * forget the milestone and the following ones (e.g. resetFrom(MILESTONE_START) on every start()).
+     */
+    public void resetFrom(int milestone) {
+        for (int i = milestone; i < MILESTONE_COUNT; i++) {
+            mNanos[i] = 0L;
+        }
+    }
+
+    public static String milestoneToString(int milestone) {
+        return milestone >= 0 && milestone < MILESTONE_COUNT ? NAMES[milestone] : "milestone " + milestone;
+    }
+
+    /**
+     * print the reached milestones with the time since the first one and since the previous one.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "startup [ms] :");
+        long first = 0L;
+        long previous = 0L;
+        for (int i = 0; i < MILESTONE_COUNT; i++) {
+            final long nanos = mNanos[i];
+            if (nanos == 0L) {
+                writer.println(prefix + "  " + NAMES[i] + " : -");
+                continue;
+            }
+            if (first == 0L) {
+                first = nanos;
+                previous = nanos;
+            }
+            writer.println(prefix + "  " + NAMES[i] + " : +" + (nanos - first) * 1e-6f
+                    + " (phase " + (nanos - previous) * 1e-6f + ")");
+            previous = nanos;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.suredesigns.sensortest;
+
+/**
+ * detects that the device lies still.
+ *
+ * the device is regarded as still when every sample stays within the tolerance of an anchor sample
+ * for the quiet period. a sample out of the tolerance moves the anchor to it and restarts the period.
+ * the cost per sample is constant and nothing is allocated.
+ */
+public final class StillnessDetector {
+    /** default quiet period [ns] (2 minutes). */
+    public static final long DEFAULT_QUIET_PERIOD_NS = 120L * 1000000000L;
+    /** default tolerance of the normalized gravity vector (about 1 degree). */
+    public static final float DEFAULT_TOLERANCE = 0.0175f;
+
+    private final float[] mAnchor;
+    private long mAnchorTimestamp;
+    private long mQuietPeriodNs;
+    private float mToleranceSquared;
+    private boolean mInitialized;
+    private boolean mStill;
+
+    public StillnessDetector(int axes) {
+        this(axes, DEFAULT_QUIET_PERIOD_NS, DEFAULT_TOLERANCE);
+    }
+
+    public StillnessDetector(int axes, long quietPeriodNs, float tolerance) {
+        mAnchor = new float[axes];
+        setQuietPeriod(quietPeriodNs);
+        setTolerance(tolerance);
+    }
+
+    public void setQuietPeriod(long quietPeriodNs) {
+        if (quietPeriodNs <= 0L) {
+            throw new IllegalArgumentException("quiet period must be positive : " + quietPeriodNs);
+        }
+        mQuietPeriodNs = quietPeriodNs;
+    }
+
+    public long getQuietPeriod() {
+        return mQuietPeriodNs;
+    }
+
+    public void setTolerance(float tolerance) {
+        if (tolerance <= 0.0f) {
+            throw new IllegalArgumentException("tolerance must be positive : " + tolerance);
+        }
+        mToleranceSquared = tolerance * tolerance;
+    }
+
+    /**
+     * @param values sample of the sensor.
+     * @param timestamp timestamp of the sample in nanoseconds.
+     * @return true if the device has been still for the quiet period.
+     */
+    public boolean update(float[] values, long timestamp) {
+        final float[] anchor = mAnchor;
+        final int axes = anchor.length;
+        if (!mInitialized) {
+            setAnchor(values, timestamp);
+            mInitialized = true;
+            return false;
+        }
+        float distanceSquared = 0.0f;
+        for (int i = 0; i < axes; i++) {
+            final float d = values[i] - anchor[i];
+            distanceSquared += d * d;
+        }
+        if (distanceSquared > mToleranceSquared) {
+            setAnchor(values, timestamp);
+            return false;
+        }
+        mStill = timestamp - mAnchorTimestamp >= mQuietPeriodNs;
+        return mStill;
+    }
+
+    public boolean isStill() {
+        return mStill;
+    }
+
+    public void reset() {
+        mInitialized = false;
+        mStill = false;
+    }
+
+    private void setAnchor(float[] values, long timestamp) {
+        System.arraycopy(values, 0, mAnchor, 0, mAnchor.length);
+        mAnchorTimestamp = timestamp;
+        mStill = false;
+    }
+}
@@ -0,0 +1,217 @@
+package com.suredesigns.sensortest;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * derives the tilt and shake thresholds from the noise of the sensor of the device.
+ *
+ * TILT_THRESHOLD_* and SHAKE_THRESHOLD_* are constants tuned on one phone. this class keeps
+ * {@link QuantileSketch}es of the per-axis tilt noise (deviation of the tilt from its moving average)
+ * and of the per-axis angular travel in the shake window, and derives the thresholds from a percentile
+ * of them times a margin. the sketches can be saved to a file, so the next session starts calibrated.
+ *
+ * only the samples while the device is held still are taken: no tilt direction and a shake window
+ * with less travel than MIN_SHAKE_THRESHOLD. the deliberate tilts and shakes are the signal, not the noise,
+ * and a threshold derived from them would grow with the use of the device.
+ */
+public final class ThresholdCalibrator {
+    public static final String TAG = ThresholdCalibrator.class.getSimpleName();
+
+    public static final float DEFAULT_TILT_PERCENTILE = 0.99f;
+    public static final float DEFAULT_TILT_MARGIN = 3.0f;
+    public static final float DEFAULT_SHAKE_PERCENTILE = 0.99f;
+    public static final float DEFAULT_SHAKE_MARGIN = 3.0f;
+    public static final float MIN_TILT_THRESHOLD = 0.04f;
+    public static final float MAX_TILT_THRESHOLD = 0.3f;
+    public static final float MIN_SHAKE_THRESHOLD = 0.15f;
+    public static final float MAX_SHAKE_THRESHOLD = 0.6f;
+    /** samples needed before the derived thresholds are used. */
+    public static final long MIN_SAMPLES = 1000L;
+
+    // "TSC2" : the sketches of "TSC1" were taken from every sample, still or not.
+    private static final int MAGIC = 0x54534332;
+    // angular travel in the shake window below which the device is still (squared, as the window energy).
+    private static final float STILL_ENERGY = MIN_SHAKE_THRESHOLD * MIN_SHAKE_THRESHOLD;
+    // smoothing factor of the moving average of the tilt.
+    private static final float AVERAGE_FACTOR = 0.1f;
+
+    private final QuantileSketch mTiltNoiseX = new QuantileSketch();
+    private final QuantileSketch mTiltNoiseY = new QuantileSketch();
+    private final QuantileSketch mShakeX = new QuantileSketch();
+    private final QuantileSketch mShakeY = new QuantileSketch();
+    private float mAverageX;
+    private float mAverageY;
+    private boolean mInitialized;
+
+    private float mTiltPercentile = DEFAULT_TILT_PERCENTILE;
+    private float mTiltMargin = DEFAULT_TILT_MARGIN;
+    private float mShakePercentile = DEFAULT_SHAKE_PERCENTILE;
+    private float mShakeMargin = DEFAULT_SHAKE_MARGIN;
+
+    public void setPercentiles(float tiltPercentile, float tiltMargin, float shakePercentile, float shakeMargin) {
+        mTiltPercentile = tiltPercentile;
+        mTiltMargin = tiltMargin;
+        mShakePercentile = shakePercentile;
+        mShakeMargin = shakeMargin;
+    }
+
+    /**
+     * take the noise of the sample if the device is still.
+     * @param tilt tilt vector of the sample.
+     * @param direction TILT_* bits of the sample.
+     * @param shakeDetector detector updated with the same sample, or null if it was not updated
+     *                      (then the stillness is decided by the direction only).
+     * @return true if the sample was taken.
+     */
+    public boolean update(float[] tilt, int direction, ShakeDetector shakeDetector) {
+        final boolean still = direction == TiltSensorEvent.TILT_NONE
+                && (shakeDetector == null || (shakeDetector.getWindowEnergyX() < STILL_ENERGY
+                && shakeDetector.getWindowEnergyY() < STILL_ENERGY));
+        if (!still) {
+            // the average follows the tilt again from the next still sample.
+            mInitialized = false;
+            return false;
+        }
+        if (shakeDetector != null) {
+            mShakeX.add((float) Math.sqrt(shakeDetector.getWindowEnergyX()));
+            mShakeY.add((float) Math.sqrt(shakeDetector.getWindowEnergyY()));
+        }
+        if (!mInitialized) {
+            mAverageX = tilt[0];
+            mAverageY = tilt[1];
+            mInitialized = true;
+            return true;
+        }
+        mAverageX += AVERAGE_FACTOR * (tilt[0] - mAverageX);
+        mAverageY += AVERAGE_FACTOR * (tilt[1] - mAverageY);
+        mTiltNoiseX.add(Math.abs(tilt[0] - mAverageX));
+        mTiltNoiseY.add(Math.abs(tilt[1] - mAverageY));
+        return true;
+    }
+
+    public boolean isCalibrated() {
+        return mTiltNoiseX.getCount() >= MIN_SAMPLES;
+    }
+
+    /**
+     * set the derived thresholds to the classifier and the detector (either may be null).
+     * @return false if not enough samples have been seen yet.
+     */
+    public boolean applyTo(TiltDirectionClassifier classifier, ShakeDetector shakeDetector) {
+        if (!isCalibrated()) {
+            return false;
+        }
+        if (classifier != null) {
+            final float forwardBack = tiltThresholdOf(mTiltNoiseX);
+            final float leftRight = tiltThresholdOf(mTiltNoiseY);
+            classifier.setThresholds(leftRight, leftRight, forwardBack, forwardBack,
+                    TiltDirectionClassifier.DEFAULT_EXIT_RATIO);
+        }
+        if (shakeDetector != null && mShakeX.getCount() >= MIN_SAMPLES) {
+            final float forwardBack = shakeThresholdOf(mShakeX);
+            final float leftRight = shakeThresholdOf(mShakeY);
+            shakeDetector.setThresholds(leftRight, leftRight, forwardBack, forwardBack);
+        }
+        return true;
+    }
+
+    public float getTiltThresholdX() {
+        return tiltThresholdOf(mTiltNoiseX);
+    }
+
+    public float getTiltThresholdY() {
+        return tiltThresholdOf(mTiltNoiseY);
+    }
+
+    public void clear() {
+        mTiltNoiseX.clear();
+        mTiltNoiseY.clear();
+        mShakeX.clear();
+        mShakeY.clear();
+        mInitialized = false;
+    }
+
+    /**
+     * save the sketches to the file (e.g. in Activity.onStop).
+     */
+    public boolean save(File file) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            mTiltNoiseX.writeTo(out);
+            mTiltNoiseY.writeTo(out);
+            mShakeX.writeTo(out);
+            mShakeY.writeTo(out);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save thresholds to " + file, e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * load the sketches saved by {@link #save(File)}. on failure the sketches are cleared.
+     */
+    public boolean load(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("unknown format");
+            }
+            mTiltNoiseX.readFrom(in);
+            mTiltNoiseY.readFrom(in);
+            mShakeX.readFrom(in);
+            mShakeY.readFrom(in);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to load thresholds from " + file, e);
+            clear();
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private float tiltThresholdOf(QuantileSketch sketch) {
+        return clamp(sketch.quantile(mTiltPercentile) * mTiltMargin, MIN_TILT_THRESHOLD, MAX_TILT_THRESHOLD);
+    }
+
+    private float shakeThresholdOf(QuantileSketch sketch) {
+        return clamp(sketch.quantile(mShakePercentile) * mShakeMargin, MIN_SHAKE_THRESHOLD, MAX_SHAKE_THRESHOLD);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        if (value != value) {
+            return min;
+        }
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do.
+        }
+    }
+}
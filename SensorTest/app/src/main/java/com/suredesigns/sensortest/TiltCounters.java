@@ -0,0 +1,122 @@
+package com.suredesigns.sensortest;
+
+import java.io.PrintWriter;
+
+/**
+ * health counters of the tilt processing, for the dump of a Service or an Activity
+ * (e.g. <code>adb shell dumpsys activity service &lt;component&gt;</code>).
+ *
+ * the counters are written by one thread (the thread of the sensor listener) without any lock.
+ * they are volatile, so that a dump from another thread reads whole and recent values.
+ */
+public final class TiltCounters {
+    // smoothing factor of the moving average of the sample interval.
+    private static final float RATE_FACTOR = 0.05f;
+
+    private volatile long mSamplesReceived;
+    private volatile long mSamplesProcessed;
+    private volatile long mDispatches;
+    private volatile long mBoundaryReanchors;
+    private volatile long mGestureTransitions;
+    // moving average of the sample interval [ns].
+    private volatile float mSampleInterval;
+    private long mLastTimestamp;
+
+    /**
+     * a sample arrived from the sensor.
+     */
+    public void onSampleReceived(long timestamp) {
+        mSamplesReceived++;
+        if (mLastTimestamp != 0L) {
+            final float interval = timestamp - mLastTimestamp;
+            mSampleInterval = mSampleInterval == 0.0f ? interval : mSampleInterval + RATE_FACTOR * (interval - mSampleInterval);
+        }
+        mLastTimestamp = timestamp;
+    }
+
+    /**
+     * a sample went through the tilt vector and the classifier.
+     */
+    public void onSampleProcessed() {
+        mSamplesProcessed++;
+    }
+
+    public void onDispatch() {
+        mDispatches++;
+    }
+
+    /**
+     * the stroke was split at the edge of the view and restarted from the opposite edge.
+     */
+    public void onBoundaryReanchor() {
+        mBoundaryReanchors++;
+    }
+
+    /**
+     * the FLING_* / SHAKE_* bits changed.
+     */
+    public void onGestureTransition() {
+        mGestureTransitions++;
+    }
+
+    public long getSamplesReceived() {
+        return mSamplesReceived;
+    }
+
+    public long getSamplesProcessed() {
+        return mSamplesProcessed;
+    }
+
+    /**
+     * @return samples received but not processed (first sample, suspended sensor, no view, reference change).
+     */
+    public long getSamplesSuppressed() {
+        return mSamplesReceived - mSamplesProcessed;
+    }
+
+    public long getDispatches() {
+        return mDispatches;
+    }
+
+    public long getBoundaryReanchors() {
+        return mBoundaryReanchors;
+    }
+
+    public long getGestureTransitions() {
+        return mGestureTransitions;
+    }
+
+    /**
+     * @return measured rate of the sensor [Hz], or 0 before the second sample.
+     */
+    public float getSampleRate() {
+        final float interval = mSampleInterval;
+        return interval <= 0.0f ? 0.0f : 1e9f / interval;
+    }
+
+    public void reset() {
+        mSamplesReceived = 0L;
+        mSamplesProcessed = 0L;
+        mDispatches = 0L;
+        mBoundaryReanchors = 0L;
+        mGestureTransitions = 0L;
+        mSampleInterval = 0.0f;
+        mLastTimestamp = 0L;
+    }
+
+    /**
+     * print the counters and the latency percentiles, one item per line.
+     */
+    public void dump(String prefix, PrintWriter writer, LatencyHistogram dispatchLatency) {
+        writer.println(prefix + "samples received : " + mSamplesReceived);
+        writer.println(prefix + "samples processed : " + mSamplesProcessed);
+        writer.println(prefix + "samples suppressed : " + getSamplesSuppressed());
+        writer.println(prefix + "dispatches : " + mDispatches);
+        writer.println(prefix + "boundary re-anchors : " + mBoundaryReanchors);
+        writer.println(prefix + "gesture transitions : " + mGestureTransitions);
+        writer.println(prefix + "sensor rate : " + getSampleRate() + " Hz");
+        if (dispatchLatency != null) {
+            writer.println(prefix + "dispatch latency : " + dispatchLatency);
+        }
+    }
+}
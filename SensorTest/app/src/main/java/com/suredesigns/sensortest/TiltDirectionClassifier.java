@@ -0,0 +1,129 @@
+package com.suredesigns.sensortest;
+
+/**
+ * tilt direction classifier with hysteresis.
+ *
+ * {@link TiltSensorEvent#getTiltDirection(float[], float, float, float, float)} compares the tilt with
+ * one threshold per direction, so the direction flickers while the tilt stays around the threshold.
+ * this class enters a direction at the enter threshold and leaves it only at the (smaller) exit threshold.
+ *
+ * the tilt of each axis is quantized into a sector, and the next state of the axis is precomputed
+ * for every (current state, sector) pair. classification is a single table lookup per axis.
+ */
+public final class TiltDirectionClassifier {
+    public static final float DEFAULT_EXIT_RATIO = 0.7f;
+
+    private static final float TILT_THRESHOLD_LEFT = 0.18f;
+    private static final float TILT_THRESHOLD_RIGHT = 0.18f;
+    private static final float TILT_THRESHOLD_FORWARD = 0.09f;
+    private static final float TILT_THRESHOLD_BACK = 0.08f;
+
+    // number of sectors quantizing [-1, 1].
+    private static final int SECTORS = 1024;
+    private static final float SECTOR_SCALE = SECTORS * 0.5f;
+
+    // states of an axis.
+    private static final byte STATE_NONE = 0;
+    private static final byte STATE_NEGATIVE = 1;
+    private static final byte STATE_POSITIVE = 2;
+    private static final int STATES = 3;
+
+    // next state for [state * SECTORS + sector].
+    private final byte[] mTableX = new byte[STATES * SECTORS];
+    private final byte[] mTableY = new byte[STATES * SECTORS];
+    private int mStateX = STATE_NONE;
+    private int mStateY = STATE_NONE;
+    private int mDirection = TiltSensorEvent.TILT_NONE;
+    private int mTransitionCount;
+
+    public TiltDirectionClassifier() {
+        setThresholds(TILT_THRESHOLD_LEFT, TILT_THRESHOLD_RIGHT, TILT_THRESHOLD_FORWARD, TILT_THRESHOLD_BACK,
+                DEFAULT_EXIT_RATIO);
+    }
+
+    /**
+     * rebuild the sector tables. the direction is entered at the threshold and left at threshold * exitRatio.
+     */
+    public void setThresholds(float left, float right, float forward, float back, float exitRatio) {
+        if (exitRatio <= 0.0f || exitRatio > 1.0f) {
+            throw new IllegalArgumentException("exitRatio must be in (0, 1] : " + exitRatio);
+        }
+        // index 0 : forward(-) / back(+), index 1 : left(-) / right(+) (same as getTiltVector()).
+        buildTable(mTableX, forward, back, exitRatio);
+        buildTable(mTableY, left, right, exitRatio);
+    }
+
+    /**
+     * @param tilt tilt vector (i.e. {@link TiltSensorEvent#getTiltVector()}).
+     * @return TILT_* bits.
+     */
+    public int classify(float[] tilt) {
+        final int stateX = mTableX[mStateX * SECTORS + sectorOf(tilt[0])];
+        final int stateY = mTableY[mStateY * SECTORS + sectorOf(tilt[1])];
+        mStateX = stateX;
+        mStateY = stateY;
+
+        int direction = TiltSensorEvent.TILT_NONE;
+        if (stateX == STATE_POSITIVE) {
+            direction |= TiltSensorEvent.TILT_BACK;
+        } else if (stateX == STATE_NEGATIVE) {
+            direction |= TiltSensorEvent.TILT_FORWARD;
+        }
+        if (stateY == STATE_POSITIVE) {
+            direction |= TiltSensorEvent.TILT_RIGHT;
+        } else if (stateY == STATE_NEGATIVE) {
+            direction |= TiltSensorEvent.TILT_LEFT;
+        }
+        if (direction != mDirection) {
+            mTransitionCount++;
+            mDirection = direction;
+        }
+        return direction;
+    }
+
+    public int getTiltDirection() {
+        return mDirection;
+    }
+
+    /**
+     * @return number of changes of the direction since the last reset.
+     */
+    public int getTransitionCount() {
+        return mTransitionCount;
+    }
+
+    public void reset() {
+        mStateX = STATE_NONE;
+        mStateY = STATE_NONE;
+        mDirection = TiltSensorEvent.TILT_NONE;
+        mTransitionCount = 0;
+    }
+
+    private static int sectorOf(float t) {
+        final int sector = (int) ((t + 1.0f) * SECTOR_SCALE);
+        if (sector < 0) {
+            return 0;
+        }
+        return sector >= SECTORS ? SECTORS - 1 : sector;
+    }
+
+    private static void buildTable(byte[] table, float negative, float positive, float exitRatio) {
+        for (int sector = 0; sector < SECTORS; sector++) {
+            // representative tilt of the sector (its center).
+            final float t = (sector + 0.5f) / SECTOR_SCALE - 1.0f;
+            table[STATE_NONE * SECTORS + sector] = nextState(t, negative, positive);
+            table[STATE_NEGATIVE * SECTORS + sector] = nextState(t, negative * exitRatio, positive);
+            table[STATE_POSITIVE * SECTORS + sector] = nextState(t, negative, positive * exitRatio);
+        }
+    }
+
+    private static byte nextState(float t, float negative, float positive) {
+        if (t <= -negative) {
+            return STATE_NEGATIVE;
+        }
+        if (t >= positive) {
+            return STATE_POSITIVE;
+        }
+        return STATE_NONE;
+    }
+}
@@ -0,0 +1,171 @@
+package com.suredesigns.sensortest;
+
+/**
+ * fan-out of the tilt events to the {@link TiltListener}s.
+ *
+ * the registrations are kept in a copy-on-write array: adding or removing a listener copies the array
+ * under a lock, and a dispatch reads the volatile array once and takes no lock, so a listener can be
+ * added or removed from any thread (even from a callback) without blocking the sensor thread.
+ * a dispatch allocates nothing.
+ */
+public final class TiltEventDispatcher {
+    private static final Registration[] EMPTY = new Registration[0];
+
+    private static final class Registration {
+        final TiltListener listener;
+        final int mask;
+
+        Registration(TiltListener listener, int mask) {
+            this.listener = listener;
+            this.mask = mask;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private volatile Registration[] mRegistrations = EMPTY;
+    // union of the masks of the registrations.
+    private volatile int mSubscribed;
+
+    /**
+     * @param mask SUBSCRIBE_* bits of {@link TiltListener}.
+     * @return false if the listener is already registered (its mask is replaced).
+     */
+    public boolean add(TiltListener listener, int mask) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        synchronized (mLock) {
+            final Registration[] registrations = mRegistrations;
+            final int index = indexOf(registrations, listener);
+            final Registration[] next;
+            if (index >= 0) {
+                next = registrations.clone();
+                next[index] = new Registration(listener, mask);
+            } else {
+                next = new Registration[registrations.length + 1];
+                System.arraycopy(registrations, 0, next, 0, registrations.length);
+                next[registrations.length] = new Registration(listener, mask);
+            }
+            publish(next);
+            return index < 0;
+        }
+    }
+
+    /**
+     * @return SUBSCRIBE_* bits the listener was registered with, or 0 if it was not registered.
+     */
+    public int remove(TiltListener listener) {
+        synchronized (mLock) {
+            final Registration[] registrations = mRegistrations;
+            final int index = indexOf(registrations, listener);
+            if (index < 0) {
+                return 0;
+            }
+            final Registration[] next;
+            if (registrations.length == 1) {
+                next = EMPTY;
+            } else {
+                next = new Registration[registrations.length - 1];
+                System.arraycopy(registrations, 0, next, 0, index);
+                System.arraycopy(registrations, index + 1, next, index, next.length - index);
+            }
+            publish(next);
+            return registrations[index].mask;
+        }
+    }
+
+    /**
+     * @return SUBSCRIBE_* bits the listener is registered with, or 0 if it is not registered.
+     */
+    public int getMask(TiltListener listener) {
+        final Registration[] registrations = mRegistrations;
+        final int index = indexOf(registrations, listener);
+        return index < 0 ? 0 : registrations[index].mask;
+    }
+
+    /**
+     * @return union of the SUBSCRIBE_* bits of all the listeners.
+     */
+    public int getSubscribed() {
+        return mSubscribed;
+    }
+
+    /**
+     * @return copy of the registered listeners.
+     */
+    public TiltListener[] getListeners() {
+        final Registration[] registrations = mRegistrations;
+        final TiltListener[] listeners = new TiltListener[registrations.length];
+        for (int i = 0; i < registrations.length; i++) {
+            listeners[i] = registrations[i].listener;
+        }
+        return listeners;
+    }
+
+    public int getListenerCount() {
+        return mRegistrations.length;
+    }
+
+    public void dispatchDirectionChanged(int direction, int previousDirection, long timestamp) {
+        final Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if ((registrations[i].mask & TiltListener.SUBSCRIBE_DIRECTION) != 0) {
+                registrations[i].listener.onDirectionChanged(direction, previousDirection, timestamp);
+            }
+        }
+    }
+
+    public void dispatchFlingStarted(int flingState, long timestamp) {
+        final Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if ((registrations[i].mask & TiltListener.SUBSCRIBE_FLING) != 0) {
+                registrations[i].listener.onFlingStarted(flingState, timestamp);
+            }
+        }
+    }
+
+    public void dispatchFlingEnded(long timestamp) {
+        final Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if ((registrations[i].mask & TiltListener.SUBSCRIBE_FLING) != 0) {
+                registrations[i].listener.onFlingEnded(timestamp);
+            }
+        }
+    }
+
+    public void dispatchShake(int shakeState, long timestamp) {
+        final Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if ((registrations[i].mask & TiltListener.SUBSCRIBE_SHAKE) != 0) {
+                registrations[i].listener.onShake(shakeState, timestamp);
+            }
+        }
+    }
+
+    public void dispatchReferenceChanged(long timestamp) {
+        final Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if ((registrations[i].mask & TiltListener.SUBSCRIBE_REFERENCE) != 0) {
+                registrations[i].listener.onReferenceChanged(timestamp);
+            }
+        }
+    }
+
+    private void publish(Registration[] registrations) {
+        int subscribed = 0;
+        for (int i = 0; i < registrations.length; i++) {
+            subscribed |= registrations[i].mask;
+        }
+        mRegistrations = registrations;
+        mSubscribed = subscribed;
+    }
+
+    private static int indexOf(Registration[] registrations, TiltListener listener) {
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,212 @@
+package com.suredesigns.sensortest;
+
+/**
+ * recognizes custom tilt gestures (e.g. double-tilt, circle) by matching the live tilt stream
+ * against a library of templates with incremental dynamic time warping.
+ *
+ * each template keeps one column of the subsequence DTW matrix (SPRING, Sakurai et al. 2007),
+ * so a new sample updates the column in O(template length) and no history is stored.
+ * the start sample of every warping path is carried along the column, and paths longer than
+ * the window are discarded, which bounds a match in time.
+ * the per-sample cost is bounded by the total length of the templates, and nothing is allocated.
+ *
+ * call {@link #update(float[], long)} with the tilt vector of every sample
+ * (e.g. {@link TiltSensorEvent#getTiltVector()}), next to the engine's own processing.
+ */
+public final class TiltGestureRecognizer {
+    /** listener of the recognized gestures. */
+    public interface OnGestureListener {
+        /**
+         * @param gestureId id given to {@link #addTemplate(int, float[], float)}.
+         * @param distance mean DTW distance per template point.
+         * @param startTimestamp timestamp of the first sample of the match in nanoseconds.
+         * @param endTimestamp timestamp of the last sample of the match in nanoseconds.
+         */
+        public void onGesture(int gestureId, float distance, long startTimestamp, long endTimestamp);
+    }
+
+    public static final int MAX_TEMPLATES = 16;
+    public static final int MAX_TEMPLATE_LENGTH = 64;
+    public static final int DEFAULT_WINDOW = 120;
+
+    private static final float INFINITY = Float.MAX_VALUE;
+    private static final int TIMESTAMP_BUFFER = 256;
+
+    private final int[] mIds = new int[MAX_TEMPLATES];
+    private final int[] mLengths = new int[MAX_TEMPLATES];
+    private final float[] mThresholds = new float[MAX_TEMPLATES];
+    // template points, interleaved (x, y).
+    private final float[][] mTemplates = new float[MAX_TEMPLATES][];
+    // current column of the DTW matrix and the start sample of each cell.
+    private final float[][] mCost = new float[MAX_TEMPLATES][];
+    private final long[][] mStart = new long[MAX_TEMPLATES][];
+    // best match found so far (reported when no better match can start before it ends).
+    private final float[] mBestDistance = new float[MAX_TEMPLATES];
+    private final long[] mBestStart = new long[MAX_TEMPLATES];
+    private final long[] mBestEnd = new long[MAX_TEMPLATES];
+    private int mTemplateCount;
+
+    // timestamps of the recent samples, indexed by sample number.
+    private final long[] mTimestamps = new long[TIMESTAMP_BUFFER];
+    private long mSampleCount;
+    private int mWindow = DEFAULT_WINDOW;
+    private OnGestureListener mListener;
+
+    public void setOnGestureListener(OnGestureListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param window maximum length of a match in samples.
+     */
+    public void setWindow(int window) {
+        if (window < 1 || window >= TIMESTAMP_BUFFER) {
+            throw new IllegalArgumentException("window must be in [1, " + TIMESTAMP_BUFFER + ") : " + window);
+        }
+        mWindow = window;
+    }
+
+    /**
+     * @param gestureId id reported to the listener.
+     * @param points template tilt points, interleaved (x, y) as getTiltVector()[0], [1].
+     * @param threshold maximum mean distance per point to accept a match.
+     * @return index of the template.
+     */
+    public int addTemplate(int gestureId, float[] points, float threshold) {
+        if (mTemplateCount >= MAX_TEMPLATES) {
+            throw new IllegalStateException("too many templates : " + MAX_TEMPLATES);
+        }
+        final int length = points.length / 2;
+        if (length < 1 || length > MAX_TEMPLATE_LENGTH || points.length % 2 != 0) {
+            throw new IllegalArgumentException("template must have 1 to " + MAX_TEMPLATE_LENGTH + " points");
+        }
+        final int index = mTemplateCount++;
+        mIds[index] = gestureId;
+        mLengths[index] = length;
+        mThresholds[index] = threshold;
+        mTemplates[index] = points.clone();
+        mCost[index] = new float[length + 1];
+        mStart[index] = new long[length + 1];
+        resetTemplate(index);
+        return index;
+    }
+
+    public int getTemplateCount() {
+        return mTemplateCount;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mTemplateCount; i++) {
+            resetTemplate(i);
+        }
+        mSampleCount = 0;
+    }
+
+    /**
+     * feed a tilt sample.
+     * @return id of the gesture reported by this sample, or -1.
+     */
+    public int update(float[] tilt, long timestamp) {
+        final long n = mSampleCount++;
+        mTimestamps[(int) (n % TIMESTAMP_BUFFER)] = timestamp;
+        final float x = tilt[0];
+        final float y = tilt[1];
+        int reported = -1;
+        for (int k = 0; k < mTemplateCount; k++) {
+            if (updateTemplate(k, x, y, n) && reported < 0) {
+                reported = mIds[k];
+            }
+        }
+        return reported;
+    }
+
+    // one step of SPRING for the template k. returns true if a match is reported.
+    private boolean updateTemplate(int k, float x, float y, long n) {
+        final float[] template = mTemplates[k];
+        final float[] cost = mCost[k];
+        final long[] start = mStart[k];
+        final int length = mLengths[k];
+        final long oldest = n - mWindow;
+
+        // column 0 is the free start: a path may begin at any sample.
+        float diagonal = cost[0];
+        long diagonalStart = start[0];
+        cost[0] = 0.0f;
+        start[0] = n;
+        for (int j = 1; j <= length; j++) {
+            final float dx = x - template[2 * (j - 1)];
+            final float dy = y - template[2 * (j - 1) + 1];
+            final float d = dx * dx + dy * dy;
+
+            // min of (left : cost[j - 1] of this sample, up : cost[j] of the previous sample, diagonal).
+            float best = cost[j - 1];
+            long bestStart = start[j - 1];
+            if (cost[j] < best) {
+                best = cost[j];
+                bestStart = start[j];
+            }
+            if (diagonal < best) {
+                best = diagonal;
+                bestStart = diagonalStart;
+            }
+            diagonal = cost[j];
+            diagonalStart = start[j];
+            if (best == INFINITY || bestStart < oldest) {
+                cost[j] = INFINITY;
+            } else {
+                cost[j] = best + d;
+            }
+            start[j] = bestStart;
+        }
+
+        boolean reported = false;
+        // report the best match once no open path which started before its end can beat it.
+        if (mBestDistance[k] != INFINITY) {
+            boolean overlapping = false;
+            for (int j = 1; j <= length; j++) {
+                if (cost[j] < mBestDistance[k] * length && start[j] <= mBestEnd[k]) {
+                    overlapping = true;
+                    break;
+                }
+            }
+            if (!overlapping) {
+                if (mListener != null) {
+                    mListener.onGesture(mIds[k], mBestDistance[k], timestampOf(mBestStart[k]), timestampOf(mBestEnd[k]));
+                }
+                reported = true;
+                mBestDistance[k] = INFINITY;
+                // cells sharing the reported path must not report it again.
+                for (int j = 1; j <= length; j++) {
+                    if (start[j] <= mBestEnd[k]) {
+                        cost[j] = INFINITY;
+                    }
+                }
+            }
+        }
+        final float distance = cost[length] == INFINITY ? INFINITY : cost[length] / length;
+        // a match must span at least half of the template, otherwise one sample could match a whole template.
+        final boolean longEnough = (n - start[length] + 1) * 2 >= length;
+        if (longEnough && distance <= mThresholds[k] && distance < mBestDistance[k]) {
+            mBestDistance[k] = distance;
+            mBestStart[k] = start[length];
+            mBestEnd[k] = n;
+        }
+        return reported;
+    }
+
+    private long timestampOf(long sample) {
+        if (mSampleCount - sample > TIMESTAMP_BUFFER) {
+            return 0L;
+        }
+        return mTimestamps[(int) (sample % TIMESTAMP_BUFFER)];
+    }
+
+    private void resetTemplate(int k) {
+        final float[] cost = mCost[k];
+        for (int j = 0; j < cost.length; j++) {
+            cost[j] = INFINITY;
+            mStart[k][j] = 0L;
+        }
+        mBestDistance[k] = INFINITY;
+    }
+}
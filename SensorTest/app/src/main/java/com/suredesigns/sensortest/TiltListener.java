@@ -0,0 +1,65 @@
+package com.suredesigns.sensortest;
+
+/**
+ * listener of the tilt engine, registered to {@link TiltSensorHost#addTiltListener(TiltListener, int)}
+ * with a bitmask of the SUBSCRIBE_* events.
+ *
+ * the callbacks are called on the thread of the sensor listener (the main thread by default)
+ * and take only primitives. states are given as the TILT_* / FLING_* / SHAKE_* bits of {@link TiltSensorEvent}.
+ */
+public interface TiltListener {
+    public static final int SUBSCRIBE_DIRECTION = 1;
+    public static final int SUBSCRIBE_FLING = 1 << 1;
+    public static final int SUBSCRIBE_SHAKE = 1 << 2;
+    public static final int SUBSCRIBE_REFERENCE = 1 << 3;
+    public static final int SUBSCRIBE_ALL = SUBSCRIBE_DIRECTION | SUBSCRIBE_FLING | SUBSCRIBE_SHAKE | SUBSCRIBE_REFERENCE;
+
+    /**
+     * @param direction TILT_* bits of the new direction.
+     * @param previousDirection TILT_* bits of the previous direction.
+     * @param timestamp timestamp of the sample in nanoseconds.
+     */
+    public void onDirectionChanged(int direction, int previousDirection, long timestamp);
+
+    /**
+     * @param flingState FLING_* bits of the fling.
+     */
+    public void onFlingStarted(int flingState, long timestamp);
+
+    public void onFlingEnded(long timestamp);
+
+    /**
+     * @param shakeState SHAKE_* bits of the shake.
+     */
+    public void onShake(int shakeState, long timestamp);
+
+    /**
+     * the reference (neutral) orientation has been changed.
+     */
+    public void onReferenceChanged(long timestamp);
+
+    /**
+     * empty implementation, to override only the callbacks of the subscribed events.
+     */
+    public static class SimpleTiltListener implements TiltListener {
+        @Override
+        public void onDirectionChanged(int direction, int previousDirection, long timestamp) {
+        }
+
+        @Override
+        public void onFlingStarted(int flingState, long timestamp) {
+        }
+
+        @Override
+        public void onFlingEnded(long timestamp) {
+        }
+
+        @Override
+        public void onShake(int shakeState, long timestamp) {
+        }
+
+        @Override
+        public void onReferenceChanged(long timestamp) {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.suredesigns.sensortest;
+
+import android.content.Context;
+import android.view.View;
+
+/**
+ * lightweight host of the tilt engine of one view, bound to the lifecycle of the host activity.
+ *
+ * {@link TiltSensorService} extends InputMethodService only to get a service lifecycle,
+ * and starting it brings up the IME machinery (onInitializeInterface, window tokens and
+ * a second registration of the sensor). this class registers the gravity sensor directly
+ * and runs the same per-sample processing in process.
+ *
+ * the host is a {@link TiltSessionManager} of a single {@link TiltSession}, which is the engine:
+ * the static TiltSensorEvent is not used, so nothing of the view outlives it. the stages of the view
+ * (filter chain, calibrators, shake detector, gesture recognizer, listeners) are set to the session,
+ * and the methods below forward to it.
+ *
+ * usage (instead of startTiltSensorService() / stopTiltSensorService()):
+ * <pre>
+ *     // Activity.onCreate
+ *     mTiltSensorHost = new TiltSensorHost(this, view);
+ *     // Activity.onStart
+ *     mTiltSensorHost.start();
+ *     // Activity.onStop
+ *     mTiltSensorHost.stop();
+ *     // Activity.onDestroy
+ *     mTiltSensorHost.release();
+ * </pre>
+ * the host keeps the application context only, and release() closes the session, which drops the view,
+ * the listeners and the stages, so the host does not retain the Activity.
+ */
+public class TiltSensorHost extends TiltSessionManager {
+    public static final String TAG = TiltSensorHost.class.getSimpleName();
+
+    /** output : tilt direction (TILT_* bits). */
+    public static final int OUTPUT_DIRECTION = TiltSession.OUTPUT_DIRECTION;
+    /** output : fling state (FLING_* bits). */
+    public static final int OUTPUT_FLING = TiltSession.OUTPUT_FLING;
+    /** output : shake state (SHAKE_* bits). */
+    public static final int OUTPUT_SHAKE = TiltSession.OUTPUT_SHAKE;
+    /** output : gestures of the gesture recognizer. */
+    public static final int OUTPUT_GESTURE = TiltSession.OUTPUT_GESTURE;
+
+    private final TiltSession mSession;
+
+    /**
+     * @param view view scrolled by the tilt. its touch listener is replaced by the one of the session.
+     */
+    public TiltSensorHost(Context context, View view) {
+        super(context);
+        mSession = createSession(view);
+    }
+
+    /**
+     * @return the session of the view (closed after release()).
+     */
+    public TiltSession getSession() {
+        return mSession;
+    }
+
+    /**
+     * @see TiltSession#setFilterChain(SensorFilterChain)
+     */
+    public void setFilterChain(SensorFilterChain filterChain) {
+        mSession.setFilterChain(filterChain);
+    }
+
+    public SensorFilterChain getFilterChain() {
+        return mSession.getFilterChain();
+    }
+
+    /**
+     * @see TiltSession#setShakeDetector(ShakeDetector)
+     */
+    public void setShakeDetector(ShakeDetector shakeDetector) {
+        mSession.setShakeDetector(shakeDetector);
+    }
+
+    /**
+     * @see TiltSession#setGestureRecognizer(TiltGestureRecognizer)
+     */
+    public void setGestureRecognizer(TiltGestureRecognizer gestureRecognizer) {
+        mSession.setGestureRecognizer(gestureRecognizer);
+    }
+
+    /**
+     * @see TiltSession#setNeutralCalibrator(NeutralCalibrator)
+     */
+    public void setNeutralCalibrator(NeutralCalibrator calibrator) {
+        mSession.setNeutralCalibrator(calibrator);
+    }
+
+    /**
+     * @see TiltSession#setThresholdCalibrator(ThresholdCalibrator)
+     */
+    public void setThresholdCalibrator(ThresholdCalibrator thresholdCalibrator) {
+        mSession.setThresholdCalibrator(thresholdCalibrator);
+    }
+
+    /**
+     * @see TiltSession#acquireOutputs(int)
+     */
+    public void acquireOutputs(int outputs) {
+        mSession.acquireOutputs(outputs);
+    }
+
+    public void releaseOutputs(int outputs) {
+        mSession.releaseOutputs(outputs);
+    }
+
+    public int getConsumedOutputs() {
+        return mSession.getConsumedOutputs();
+    }
+
+    /**
+     * @see TiltSession#setFlingBoost(boolean)
+     */
+    public void setFlingBoost(boolean flingBoost) {
+        mSession.setFlingBoost(flingBoost);
+    }
+
+    public boolean isFlingBoost() {
+        return mSession.isFlingBoost();
+    }
+
+    /**
+     * @see TiltSession#addTiltListener(TiltListener, int)
+     */
+    public void addTiltListener(TiltListener listener, int mask) {
+        mSession.addTiltListener(listener, mask);
+    }
+
+    public void removeTiltListener(TiltListener listener) {
+        mSession.removeTiltListener(listener);
+    }
+
+    public TiltSnapshot getSnapshot() {
+        return mSession.getSnapshot();
+    }
+
+    public TiltStream getTiltStream() {
+        return mSession.getTiltStream();
+    }
+
+    public TiltDirectionClassifier getDirectionClassifier() {
+        return mSession.getDirectionClassifier();
+    }
+}
@@ -0,0 +1,1009 @@
+package com.suredesigns.sensortest;
+
+import android.os.SystemClock;
+import android.view.GestureDetector;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.PrintWriter;
+
+/**
+ * tilt engine of one view.
+ *
+ * {@link TiltSensorEvent} keeps the physics of the only scroll target of the process in a static instance,
+ * which also holds the view, its context and the last MotionEvent. a session keeps the same state
+ * (gravity, reference, velocity, pointer, fling) for its own view, so several views can be scrolled at once
+ * and nothing outlives the view. sessions are created by {@link TiltSessionManager}, which shares
+ * one sensor registration among them and hands each normalized sample to every session.
+ *
+ * the per-sample processing is the same as TiltSensorService, and the physics is the same as TiltSensorEvent
+ * (without the logging), so a session scrolls exactly like the singleton. all the optional stages
+ * (filter chain, neutral and threshold calibration, windowed shake detection, gesture recognition),
+ * the listeners and the published state belong to the session.
+ * nothing is allocated per sample except the dispatched MotionEvents (which are pooled by the framework).
+ *
+ * the session is used on the thread of the sensor listener (the main thread).
+ */
+public final class TiltSession {
+    public static final String TAG = TiltSession.class.getSimpleName();
+
+    /** output : tilt direction (TILT_* bits). */
+    public static final int OUTPUT_DIRECTION = 1;
+    /** output : fling state (FLING_* bits). */
+    public static final int OUTPUT_FLING = 1 << 1;
+    /** output : shake state (SHAKE_* bits). */
+    public static final int OUTPUT_SHAKE = 1 << 2;
+    /** output : gestures of the gesture recognizer. */
+    public static final int OUTPUT_GESTURE = 1 << 3;
+    private static final int OUTPUT_COUNT = 4;
+
+    private static final int AXES = 3;
+    // samples between two updates of the derived thresholds.
+    private static final int THRESHOLD_UPDATE_INTERVAL = 500;
+    private static final float SHAKE_THRESHOLD_LEFT_SQUARED = 0.35f * 0.35f;
+    private static final float SHAKE_THRESHOLD_RIGHT_SQUARED = 0.35f * 0.35f;
+    private static final float SHAKE_THRESHOLD_FORWARD_SQUARED = 0.24f * 0.24f;
+    private static final float SHAKE_THRESHOLD_BACK_SQUARED = 0.21f * 0.21f;
+    private static final float MAX_TILT = 0.99999f;
+    private static final float STANDARD_GRAVITY = 9.80665f;
+    private static final float INV_THRESHOLD_VELOCITY_X = 1.0f / 1000.0f;
+    private static final float INV_THRESHOLD_VELOCITY_Y = 1.0f / 1400.0f;
+    private static final float SLIDING_COEFFICIENT_MIN_MAX_RATIO = 0.53125f;
+    private static final int SHAKE_X = TiltSensorEvent.FLING_LEFT | TiltSensorEvent.FLING_RIGHT
+            | TiltSensorEvent.SHAKE_LEFT | TiltSensorEvent.SHAKE_RIGHT;
+    private static final int SHAKE_Y = TiltSensorEvent.FLING_FORWARD | TiltSensorEvent.FLING_BACK
+            | TiltSensorEvent.SHAKE_FORWARD | TiltSensorEvent.SHAKE_BACK;
+
+    private final TiltSessionManager mManager;
+    // released by close().
+    private View mView;
+
+    // stages.
+    private SensorFilterChain mFilterChain = SensorFilterChain.createDefault(AXES);
+    private NeutralCalibrator mCalibrator;
+    private ShakeDetector mShakeDetector;
+    private TiltGestureRecognizer mGestureRecognizer;
+    private ThresholdCalibrator mThresholdCalibrator;
+    private int mThresholdUpdateCounter;
+    private final TiltDirectionClassifier mDirectionClassifier = new TiltDirectionClassifier();
+
+    // number of consumers of each output, and the outputs having at least one consumer.
+    private final int[] mConsumerCounts = new int[OUTPUT_COUNT];
+    private int mConsumedOutputs;
+    private boolean mFlingBoost = true;
+    private boolean mFlingEvaluated = true;
+
+    private final TiltEventDispatcher mDispatcher = new TiltEventDispatcher();
+    // last states notified to the listeners.
+    private int mLastDirection;
+    private int mLastFlingState;
+
+    private final TiltSnapshot mSnapshot = new TiltSnapshot();
+    private final TiltStream mTiltStream = new TiltStream();
+
+    // physics (same as TiltSensorEvent).
+    private final float[] mReference = {0.0f, 0.0f, -1.0f};
+    private final float[] mGravitation = new float[AXES];
+    private final float[] mTilt = new float[2];
+    // tilt of the previous sample evaluated for fling and shake.
+    private final float[] mPrevTilt = new float[2];
+    private float mVelocityX;
+    private float mVelocityY;
+    private float mFlingVelocityX;
+    private float mFlingVelocityY;
+    private float mMeanFlingSpeed = 7200.0f;
+    private float mSlidingCoefficientX = 250.0f;
+    private float mSlidingCoefficientY = 375.0f;
+    private int mFlingState;
+    private boolean mReferenceChanged;
+    private long mPrevTimestamp = -1L;
+    private long mSampleTimestamp;
+    private boolean mFirstSample = true;
+
+    // view.
+    private int mViewWidth;
+    private int mViewHeight;
+    private int mViewLeft;
+    private int mViewRight;
+    private int mViewTop;
+    private int mViewBottom;
+    private int mViewScrollX;
+    private int mViewScrollY;
+    private int mPrevViewScrollX;
+    private int mPrevViewScrollY;
+
+    // last event of the stroke (dispatched, or the physical touch).
+    private int mAction = MotionEvent.ACTION_CANCEL;
+    private long mDownTime;
+    private float mX;
+    private float mY;
+    // position before the integration of the current sample.
+    private float mPrevX;
+    private float mPrevY;
+    private boolean mLastEventPhysical;
+    private boolean mIsPhysicallyTouched;
+    private boolean mStopDispatchMotionEvent;
+    private boolean mClosed;
+
+    TiltSession(TiltSessionManager manager, View view) {
+        mManager = manager;
+        mView = view;
+        updateViewSize();
+        mX = mViewLeft + mViewWidth / 2;
+        mY = mViewTop + mViewHeight / 2;
+    }
+
+    /**
+     * install the touch listener which detects physical touches and flings on the view
+     * (same as TiltSensorEvent.setView).
+     * @param onTouchListener listener called after the session, or null.
+     */
+    public void attachTouchListener(final View.OnTouchListener onTouchListener) {
+        if (mView == null) {
+            throw new IllegalStateException("session is closed");
+        }
+        final GestureDetector detector = new GestureDetector(mView.getContext(),
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                        return onPhysicalFling(e1, e2, velocityX, velocityY);
+                    }
+                });
+        mView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                detector.onTouchEvent(event);
+                onTouchEvent(v, event);
+                return onTouchListener != null && onTouchListener.onTouch(v, event);
+            }
+        });
+    }
+
+    /**
+     * read the size and the position of the view again (e.g. in onWindowFocusChanged or after a layout).
+     */
+    public void updateViewSize() {
+        final View view = mView;
+        if (view == null) {
+            return;
+        }
+        mViewWidth = view.getWidth();
+        mViewHeight = view.getHeight();
+        mViewLeft = view.getLeft();
+        mViewRight = view.getRight();
+        mViewTop = view.getTop();
+        mViewBottom = view.getBottom();
+        mViewScrollX = mPrevViewScrollX = view.getScrollX();
+        mViewScrollY = mPrevViewScrollY = view.getScrollY();
+    }
+
+    /**
+     * @return the view, or null after close().
+     */
+    public View getView() {
+        return mView;
+    }
+
+    /**
+     * filter chain applied to the normalized gravity sample. it replaces the low-pass filter of
+     * TiltSensorEvent.updateGravitation, so the default chain is that low-pass filter alone.
+     * @param filterChain chain, or null to restore {@link SensorFilterChain#createDefault(int)}.
+     */
+    public void setFilterChain(SensorFilterChain filterChain) {
+        mFilterChain = filterChain != null ? filterChain : SensorFilterChain.createDefault(AXES);
+    }
+
+    public SensorFilterChain getFilterChain() {
+        return mFilterChain;
+    }
+
+    /**
+     * online calibrator of the neutral orientation. null to keep the reference fixed.
+     */
+    public void setNeutralCalibrator(NeutralCalibrator calibrator) {
+        mCalibrator = calibrator;
+        if (calibrator != null) {
+            calibrator.reset();
+            if (!mFirstSample) {
+                calibrator.setReference(mReference);
+            }
+        }
+    }
+
+    /**
+     * windowed shake detector which replaces the SHAKE_* bits of the fling state. null to use the engine's one.
+     */
+    public void setShakeDetector(ShakeDetector shakeDetector) {
+        mShakeDetector = shakeDetector;
+        if (shakeDetector != null && mThresholdCalibrator != null) {
+            mThresholdCalibrator.applyTo(null, shakeDetector);
+        }
+    }
+
+    /**
+     * recognizer fed with the tilt vector of every sample. null to disable.
+     * the recognizer is a consumer of OUTPUT_GESTURE while it is set, so it runs without acquireOutputs().
+     */
+    public void setGestureRecognizer(TiltGestureRecognizer gestureRecognizer) {
+        if (mGestureRecognizer != null) {
+            releaseOutputs(OUTPUT_GESTURE);
+        }
+        mGestureRecognizer = gestureRecognizer;
+        if (gestureRecognizer != null) {
+            acquireOutputs(OUTPUT_GESTURE);
+        }
+    }
+
+    /**
+     * calibrator deriving the thresholds of the direction classifier and the shake detector. null to disable.
+     */
+    public void setThresholdCalibrator(ThresholdCalibrator thresholdCalibrator) {
+        mThresholdCalibrator = thresholdCalibrator;
+        mThresholdUpdateCounter = 0;
+        if (thresholdCalibrator != null) {
+            thresholdCalibrator.applyTo(mDirectionClassifier, mShakeDetector);
+        }
+    }
+
+    /**
+     * register a consumer of the outputs (OUTPUT_* bits). outputs without a consumer are not evaluated,
+     * except the ones the scroll itself needs (see {@link #setFlingBoost(boolean)}).
+     * each call must be paired with {@link #releaseOutputs(int)}.
+     */
+    public void acquireOutputs(int outputs) {
+        for (int i = 0; i < OUTPUT_COUNT; i++) {
+            if ((outputs & (1 << i)) != 0) {
+                mConsumerCounts[i]++;
+            }
+        }
+        updateConsumedOutputs();
+    }
+
+    public void releaseOutputs(int outputs) {
+        for (int i = 0; i < OUTPUT_COUNT; i++) {
+            if ((outputs & (1 << i)) != 0 && mConsumerCounts[i] > 0) {
+                mConsumerCounts[i]--;
+            }
+        }
+        updateConsumedOutputs();
+    }
+
+    /**
+     * @return OUTPUT_* bits having at least one consumer.
+     */
+    public int getConsumedOutputs() {
+        return mConsumedOutputs;
+    }
+
+    /**
+     * the engine boosts the scroll velocity while flinging or shaking, so by default the fling and shake
+     * detection runs on every sample. if disabled, it runs only while OUTPUT_FLING or OUTPUT_SHAKE
+     * has a consumer, and the scroll is the plain integration of the tilt otherwise.
+     */
+    public void setFlingBoost(boolean flingBoost) {
+        mFlingBoost = flingBoost;
+    }
+
+    public boolean isFlingBoost() {
+        return mFlingBoost;
+    }
+
+    /**
+     * @param mask SUBSCRIBE_* bits of {@link TiltListener}. the outputs of the subscribed events are acquired
+     *             while the listener is registered. registering the listener again replaces its mask.
+     *             call this on the thread of the sensor listener (the main thread).
+     */
+    public void addTiltListener(TiltListener listener, int mask) {
+        final int previous = mDispatcher.getMask(listener);
+        mDispatcher.add(listener, mask);
+        acquireOutputs(outputsOf(mask));
+        releaseOutputs(outputsOf(previous));
+    }
+
+    public void removeTiltListener(TiltListener listener) {
+        releaseOutputs(outputsOf(mDispatcher.remove(listener)));
+    }
+
+    private static int outputsOf(int mask) {
+        int outputs = 0;
+        if ((mask & TiltListener.SUBSCRIBE_DIRECTION) != 0) {
+            outputs |= OUTPUT_DIRECTION;
+        }
+        if ((mask & TiltListener.SUBSCRIBE_FLING) != 0) {
+            outputs |= OUTPUT_FLING;
+        }
+        if ((mask & TiltListener.SUBSCRIBE_SHAKE) != 0) {
+            outputs |= OUTPUT_SHAKE;
+        }
+        return outputs;
+    }
+
+    /**
+     * @return state of the latest sample, readable from any thread (e.g. once per frame of a render thread).
+     */
+    public TiltSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return stream of the processed samples, for subscribers slower than the sensor (e.g. a telemetry uploader).
+     */
+    public TiltStream getTiltStream() {
+        return mTiltStream;
+    }
+
+    public TiltDirectionClassifier getDirectionClassifier() {
+        return mDirectionClassifier;
+    }
+
+    public void setSlidingCoefficients(float slidingCoefficientX, float slidingCoefficientY) {
+        mSlidingCoefficientX = slidingCoefficientX;
+        mSlidingCoefficientY = slidingCoefficientY;
+    }
+
+    /**
+     * take the current orientation as the neutral orientation at the next sample.
+     */
+    public void resetReference() {
+        mFirstSample = true;
+    }
+
+    public float getX() {
+        return mX;
+    }
+
+    public float getY() {
+        return mY;
+    }
+
+    public float getVelocityX() {
+        return mVelocityX;
+    }
+
+    public float getVelocityY() {
+        return mVelocityY;
+    }
+
+    public int getFlingState() {
+        return mFlingState;
+    }
+
+    /**
+     * @param tilt array of 2 to receive the tilt vector of the latest sample.
+     */
+    public void copyTiltTo(float[] tilt) {
+        tilt[0] = mTilt[0];
+        tilt[1] = mTilt[1];
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * detach the session from the manager. the sensor is unregistered with the last session.
+     * the touch listener is removed from the view, and the session no longer refers to the view,
+     * the listeners or the stages set by the caller.
+     */
+    public void close() {
+        mManager.closeSession(this);
+    }
+
+    /**
+     * print the state of the session.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + TAG + " : " + (mClosed ? "closed" : "open")
+                + ", consumed outputs : 0x" + Integer.toHexString(mConsumedOutputs)
+                + ", listeners : " + mDispatcher.getListenerCount());
+    }
+
+    /**
+     * take a new reference and restart the integration and the stroke at the next sample
+     * (called by the manager when it is started).
+     */
+    void restart() {
+        mFirstSample = true;
+        mPrevTimestamp = -1L;
+        mFilterChain.reset();
+        mDirectionClassifier.reset();
+        mLastDirection = TiltSensorEvent.TILT_NONE;
+        mLastFlingState = TiltSensorEvent.FLING_NONE;
+        mAction = MotionEvent.ACTION_CANCEL;
+    }
+
+    /**
+     * the sensor resumes after a suspension : restore the filter from the last sample,
+     * and restart the integration so that the suspended time is not integrated.
+     */
+    void restore(float[] lastGravity, long lastTimestamp) {
+        mFilterChain.restore(lastGravity, lastTimestamp);
+        mPrevTimestamp = -1L;
+    }
+
+    void markClosed() {
+        mClosed = true;
+        if (mView != null) {
+            mView.setOnTouchListener(null);
+            mView = null;
+        }
+        final TiltListener[] listeners = mDispatcher.getListeners();
+        for (int i = 0; i < listeners.length; i++) {
+            removeTiltListener(listeners[i]);
+        }
+        setGestureRecognizer(null);
+        mCalibrator = null;
+        mShakeDetector = null;
+        mThresholdCalibrator = null;
+    }
+
+    /**
+     * process a normalized gravity sample (called by the manager for every session).
+     * @param profiler the profiler if this sample is measured, or null.
+     * @return true if the sample reached the classifier.
+     */
+    boolean onSample(float[] values, long timestamp, StageProfiler profiler) {
+        final boolean processed = processSample(values, timestamp, profiler);
+        if (processed && profiler != null) {
+            profiler.mark(StageProfiler.STAGE_DISPATCH);
+        }
+        return processed;
+    }
+
+    private boolean processSample(float[] values, long timestamp, StageProfiler profiler) {
+        mSampleTimestamp = timestamp;
+        updateGravitation(values, timestamp);
+        if (profiler != null) {
+            profiler.mark(StageProfiler.STAGE_FILTER);
+        }
+        if (mFirstSample) {
+            mFirstSample = false;
+            changeReferencePoint(timestamp);
+            return false;
+        }
+        // the view is read once: a listener called by dispatchTouchEvent may close the session.
+        final View view = mView;
+        if (!scrollableViewExists(view)) {
+            return false;
+        }
+        if (mPrevTimestamp == -1L) {
+            mPrevTimestamp = timestamp;
+            return false;
+        }
+        if (mStopDispatchMotionEvent) {
+            changeReferencePoint(timestamp);
+        }
+        if (mReferenceChanged) {
+            mVelocityX = 0.0f;
+            mVelocityY = 0.0f;
+            mReferenceChanged = false;
+            return false;
+        }
+
+        int action = mAction;
+        long downTime = mDownTime;
+        if (mLastEventPhysical && action != MotionEvent.ACTION_MOVE && action != MotionEvent.ACTION_DOWN) {
+            action = MotionEvent.ACTION_CANCEL;
+        }
+
+        updateTilt();
+        final float[] tilt = mTilt;
+        // the direction decides the action of the stroke, so it is always classified (one table lookup per axis).
+        final int direction = mDirectionClassifier.classify(tilt);
+        if (direction != mLastDirection) {
+            if (TiltTracer.isEnabled()) {
+                TiltTracer.trace(TiltTracer.EVENT_TILT_DIRECTION, direction, mLastDirection, 0, tilt[0], tilt[1]);
+            }
+            mDispatcher.dispatchDirectionChanged(direction, mLastDirection, timestamp);
+            mLastDirection = direction;
+        }
+        final int consumed = mConsumedOutputs;
+        if (mGestureRecognizer != null && (consumed & OUTPUT_GESTURE) != 0) {
+            mGestureRecognizer.update(tilt, timestamp);
+        }
+        final boolean flingEvaluated = mFlingBoost || (consumed & (OUTPUT_FLING | OUTPUT_SHAKE)) != 0;
+        if (flingEvaluated) {
+            if (!mFlingEvaluated) {
+                // the previous tilt is the one before the pause.
+                mPrevTilt[0] = tilt[0];
+                mPrevTilt[1] = tilt[1];
+            }
+            detectFlingAndShake(tilt, direction);
+            if (mShakeDetector != null) {
+                if (!mFlingEvaluated) {
+                    // the window holds the samples before the pause.
+                    mShakeDetector.reset();
+                }
+                final int shakeState = mShakeDetector.update(tilt);
+                setFlingState(ShakeDetector.mergeInto(mFlingState, shakeState, direction));
+            }
+            notifyFlingState(timestamp);
+        }
+        mFlingEvaluated = flingEvaluated;
+        if (mThresholdCalibrator != null) {
+            updateThresholds(tilt, direction, flingEvaluated);
+        }
+        if (profiler != null) {
+            profiler.mark(StageProfiler.STAGE_CLASSIFY);
+        }
+        updatePointerPosition(view, timestamp);
+        final float x = mX;
+        final float y = mY;
+        // the pointer moves by -velocityX along x (see updatePointerPosition).
+        mSnapshot.publish(timestamp, tilt[0], tilt[1], -mVelocityX, mVelocityY, x, y, mFlingState, direction);
+        mTiltStream.publish(timestamp, tilt[0], tilt[1], -mVelocityX, mVelocityY, mFlingState);
+        mManager.onStateUpdated(tilt, direction, mFlingState);
+        if (profiler != null) {
+            profiler.mark(StageProfiler.STAGE_INTEGRATE);
+        }
+
+        if (action == MotionEvent.ACTION_CANCEL) {
+            if (direction != TiltSensorEvent.TILT_NONE) {
+                downTime = SystemClock.uptimeMillis();
+                sendMotionEvent(view, downTime, downTime, MotionEvent.ACTION_DOWN, x, y);
+            } else {
+                resetFlingIfReleased();
+                mAction = MotionEvent.ACTION_CANCEL;
+            }
+            return true;
+        }
+
+        if (direction != TiltSensorEvent.TILT_NONE) {
+            action = MotionEvent.ACTION_MOVE;
+        } else {
+            resetFlingIfReleased();
+            if (action == MotionEvent.ACTION_DOWN) {
+                action = MotionEvent.ACTION_MOVE;
+            } else {
+                action = MotionEvent.ACTION_CANCEL;
+                mFlingState = TiltSensorEvent.FLING_NONE;
+            }
+        }
+        dispatchWithinBounds(view, downTime, SystemClock.uptimeMillis(), action, x, y);
+        return true;
+    }
+
+    // TiltSensorEvent.defaultOnTouch.
+    private void onTouchEvent(View view, MotionEvent event) {
+        final int action = event.getAction();
+        if (TiltTracer.isEnabled()) {
+            TiltTracer.trace(TiltTracer.EVENT_TOUCH, event.getDeviceId(), action, TiltTracer.viewFlagsOf(view), 0.0f, 0.0f);
+        }
+        if (event.getDeviceId() != 0) {
+            view.setKeepScreenOn(false);
+            view.setFocusable(true);
+            if (!mIsPhysicallyTouched) {
+                mIsPhysicallyTouched = true;
+                setFlingState(mFlingState & TiltSensorEvent.FLING_MASK);
+            }
+            if (action == MotionEvent.ACTION_DOWN) {
+                mStopDispatchMotionEvent = true;
+            } else if (action != MotionEvent.ACTION_MOVE) {
+                mStopDispatchMotionEvent = false;
+            }
+            mAction = action;
+            mDownTime = event.getDownTime();
+            mX = event.getX();
+            mY = event.getY();
+            mLastEventPhysical = true;
+        } else {
+            if (action == MotionEvent.ACTION_CANCEL) {
+                view.setKeepScreenOn(false);
+                view.setFocusable(true);
+            } else {
+                view.setKeepScreenOn(true);
+                view.setFocusable(false);
+            }
+            mIsPhysicallyTouched = false;
+        }
+    }
+
+    // TiltSensorEvent.defaultOnFling.
+    private boolean onPhysicalFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+        if (e1 == null || e2 == null) {
+            return true;
+        }
+        if (e2.getDeviceId() == 0) {
+            return false;
+        }
+        final float rate = 1e6f / mManager.getDelayTime();
+        final float speed = (float) Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+        updateMeanFlingSpeed(speed);
+        updateFlingState(speed, velocityX, velocityY);
+        float flingX = 0.0f;
+        float flingY = 0.0f;
+        if ((mFlingState & TiltSensorEvent.FLING_MASK) != 0) {
+            mFlingState &= ~TiltSensorEvent.SHAKE_MASK;
+            final float scale = speed > 2.0f * mMeanFlingSpeed ? 4.0f : (speed > mMeanFlingSpeed ? 3.0f : 2.0f);
+            if (Math.abs(velocityX) > Math.abs(velocityY)) {
+                flingX = mViewWidth * rate * scale;
+                if ((mFlingState & TiltSensorEvent.FLING_RIGHT) != 0) {
+                    flingX = -flingX;
+                }
+            } else {
+                flingY = mViewHeight * rate * scale;
+                if ((mFlingState & TiltSensorEvent.FLING_FORWARD) != 0) {
+                    flingY = -flingY;
+                }
+            }
+        }
+        mFlingVelocityX = flingX;
+        mFlingVelocityY = flingY;
+        return false;
+    }
+
+    private void updateMeanFlingSpeed(float speed) {
+        final float mean = mMeanFlingSpeed;
+        if (speed >= 2.5f * mean) {
+            mMeanFlingSpeed += (0.25f * speed - mean) * 0.25f;
+        } else if (speed >= 1.75f * mean) {
+            mMeanFlingSpeed += (0.5f * speed - mean) * 0.25f;
+        } else if (speed >= 0.625f * mean) {
+            mMeanFlingSpeed += (speed - mean) * 0.25f;
+        } else {
+            mMeanFlingSpeed += (2.0f * speed - mean) * 0.25f;
+        }
+    }
+
+    private void updateFlingState(float speed, float velocityX, float velocityY) {
+        if (speed <= 0.375f * mMeanFlingSpeed) {
+            mFlingState &= ~TiltSensorEvent.FLING_MASK;
+            return;
+        }
+        if (velocityX > 0.5f * speed) {
+            mFlingState = (mFlingState & ~TiltSensorEvent.FLING_LEFT) | TiltSensorEvent.FLING_RIGHT;
+        } else if (velocityX < -0.5f * speed) {
+            mFlingState = (mFlingState & ~TiltSensorEvent.FLING_RIGHT) | TiltSensorEvent.FLING_LEFT;
+        } else {
+            mFlingState &= ~(TiltSensorEvent.FLING_LEFT | TiltSensorEvent.FLING_RIGHT);
+        }
+        if (velocityY > 0.5f * speed) {
+            mFlingState = (mFlingState & ~TiltSensorEvent.FLING_FORWARD) | TiltSensorEvent.FLING_BACK;
+        } else if (velocityY < -0.5f * speed) {
+            mFlingState = (mFlingState & ~TiltSensorEvent.FLING_BACK) | TiltSensorEvent.FLING_FORWARD;
+        } else {
+            mFlingState &= ~(TiltSensorEvent.FLING_FORWARD | TiltSensorEvent.FLING_BACK);
+        }
+    }
+
+    private void setFlingState(int flingState) {
+        if ((flingState & TiltSensorEvent.FLING_MASK) != 0 && (flingState & TiltSensorEvent.SHAKE_MASK) != 0) {
+            mFlingState = TiltSensorEvent.FLING_NONE;
+        } else {
+            mFlingState = flingState;
+        }
+    }
+
+    private static boolean scrollableViewExists(View view) {
+        return view != null && view.isEnabled()
+                && (view.canScrollHorizontally(1) || view.canScrollHorizontally(-1)
+                || view.canScrollVertically(1) || view.canScrollVertically(-1));
+    }
+
+    // TiltSensorEvent.updateGravitation, with the filter chain in place of its low-pass filter.
+    private void updateGravitation(float[] values, long timestamp) {
+        final float[] g = mGravitation;
+        g[0] = values[0];
+        g[1] = values[1];
+        g[2] = values[2];
+        mFilterChain.filter(g, timestamp);
+        if (mCalibrator != null) {
+            // the calibration is frozen while the device is tilted on purpose.
+            if (mLastDirection == TiltSensorEvent.TILT_NONE) {
+                mCalibrator.update(g, timestamp);
+            } else {
+                mCalibrator.skip();
+            }
+            mCalibrator.apply(g);
+        }
+        final float gNorm = (float) Math.sqrt(g[0] * g[0] + g[1] * g[1] + g[2] * g[2]);
+        if (gNorm != 0.0f) {
+            final float inv = 1.0f / gNorm;
+            g[0] *= inv;
+            g[1] *= inv;
+            g[2] *= inv;
+        }
+    }
+
+    private void changeReferencePoint(long timestamp) {
+        if (mReferenceChanged) {
+            return;
+        }
+        mReference[0] = mGravitation[0];
+        mReference[1] = mGravitation[1];
+        mReference[2] = mGravitation[2];
+        // the tilt is measured from the new reference.
+        mPrevTilt[0] = 0.0f;
+        mPrevTilt[1] = 0.0f;
+        mReferenceChanged = true;
+        if (mCalibrator != null) {
+            mCalibrator.setReference(mReference);
+        }
+        if (TiltTracer.isEnabled()) {
+            TiltTracer.trace(TiltTracer.EVENT_REFERENCE);
+        }
+        mDispatcher.dispatchReferenceChanged(timestamp);
+        mManager.onReferenceChanged(this);
+    }
+
+    // TiltSensorEvent.getTiltVector(reference, gravitation), into mTilt.
+    private void updateTilt() {
+        final float[] r = mReference;
+        final float[] g = mGravitation;
+        final float referenceX = r[1] * r[1] + r[2] * r[2];
+        final float referenceY = r[2] * r[2] + r[0] * r[0];
+        final float gravitationX = g[1] * g[1] + g[2] * g[2];
+        final float gravitationY = g[2] * g[2] + g[0] * g[0];
+        final float crossX = g[1] * r[2] - g[2] * r[1];
+        final float crossY = g[2] * r[0] - g[0] * r[2];
+        mTilt[0] = gravitationX != 0.0f && referenceX != 0.0f
+                ? crossX / (float) Math.sqrt(gravitationX * referenceX) : 0.0f;
+        mTilt[1] = gravitationY != 0.0f && referenceY != 0.0f
+                ? crossY / (float) Math.sqrt(gravitationY * referenceY) : 0.0f;
+    }
+
+    // TiltSensorEvent.detectFlingAndShake, with the direction of the classifier.
+    private void detectFlingAndShake(float[] tilt, int direction) {
+        final float dx, energyX;
+        if (Math.abs(tilt[0]) >= MAX_TILT) {
+            dx = Math.copySign(MAX_TILT, tilt[0]) - mPrevTilt[0];
+            energyX = dx * dx / (1.0f - MAX_TILT * MAX_TILT);
+        } else {
+            dx = tilt[0] - mPrevTilt[0];
+            energyX = dx * dx / (1.0f - tilt[0] * tilt[0]);
+        }
+        final float dy, energyY;
+        if (Math.abs(tilt[1]) >= MAX_TILT) {
+            dy = Math.copySign(MAX_TILT, tilt[1]) - mPrevTilt[1];
+            energyY = dy * dy / (1.0f - MAX_TILT * MAX_TILT);
+        } else {
+            dy = tilt[1] - mPrevTilt[1];
+            energyY = dy * dy / (1.0f - tilt[1] * tilt[1]);
+        }
+        mPrevTilt[0] = tilt[0];
+        mPrevTilt[1] = tilt[1];
+
+        int flingState = mFlingState;
+        if ((dy < 0.0f && energyY > SHAKE_THRESHOLD_LEFT_SQUARED)
+                || (dy > 0.0f && energyY > SHAKE_THRESHOLD_RIGHT_SQUARED)
+                || (dx < 0.0f && energyX > SHAKE_THRESHOLD_FORWARD_SQUARED)
+                || (dx > 0.0f && energyX > SHAKE_THRESHOLD_BACK_SQUARED)) {
+            if ((flingState & TiltSensorEvent.FLING_MASK) == 0) {
+                if ((direction & TiltSensorEvent.TILT_LEFT) != 0 && dy < 0.0f) {
+                    flingState |= TiltSensorEvent.SHAKE_LEFT;
+                } else if ((direction & TiltSensorEvent.TILT_RIGHT) != 0 && dy > 0.0f) {
+                    flingState |= TiltSensorEvent.SHAKE_RIGHT;
+                }
+                if ((direction & TiltSensorEvent.TILT_FORWARD) != 0 && dx < 0.0f) {
+                    flingState |= TiltSensorEvent.SHAKE_FORWARD;
+                } else if ((direction & TiltSensorEvent.TILT_BACK) != 0 && dx > 0.0f) {
+                    flingState |= TiltSensorEvent.SHAKE_BACK;
+                }
+            }
+        } else if (direction != TiltSensorEvent.TILT_NONE) {
+            // the fling or shake ends when the device is tilted back.
+            final int left = TiltSensorEvent.FLING_LEFT | TiltSensorEvent.SHAKE_LEFT;
+            final int right = TiltSensorEvent.FLING_RIGHT | TiltSensorEvent.SHAKE_RIGHT;
+            final int forward = TiltSensorEvent.FLING_FORWARD | TiltSensorEvent.SHAKE_FORWARD;
+            final int back = TiltSensorEvent.FLING_BACK | TiltSensorEvent.SHAKE_BACK;
+            if ((flingState & left) != 0 && (direction & TiltSensorEvent.TILT_LEFT) == 0) {
+                flingState &= ~left;
+            } else if ((flingState & right) != 0 && (direction & TiltSensorEvent.TILT_RIGHT) == 0) {
+                flingState &= ~right;
+            }
+            if ((flingState & forward) != 0 && (direction & TiltSensorEvent.TILT_FORWARD) == 0) {
+                flingState &= ~forward;
+            } else if ((flingState & back) != 0 && (direction & TiltSensorEvent.TILT_BACK) == 0) {
+                flingState &= ~back;
+            }
+        }
+        setFlingState(flingState);
+    }
+
+    private void notifyFlingState(long timestamp) {
+        final int flingState = mFlingState;
+        final int previous = mLastFlingState;
+        mLastFlingState = flingState;
+        if (flingState != previous) {
+            mManager.getCounters().onGestureTransition();
+            if (TiltTracer.isEnabled()) {
+                TiltTracer.trace(TiltTracer.EVENT_FLING_STATE, flingState, previous);
+            }
+        }
+        final int fling = flingState & TiltSensorEvent.FLING_MASK;
+        final int previousFling = previous & TiltSensorEvent.FLING_MASK;
+        if (fling != 0 && previousFling == 0) {
+            mDispatcher.dispatchFlingStarted(fling, timestamp);
+        } else if (fling == 0 && previousFling != 0) {
+            mDispatcher.dispatchFlingEnded(timestamp);
+        }
+        final int shake = flingState & TiltSensorEvent.SHAKE_MASK;
+        if (shake != 0 && shake != (previous & TiltSensorEvent.SHAKE_MASK)) {
+            mDispatcher.dispatchShake(shake, timestamp);
+        }
+    }
+
+    private void updateConsumedOutputs() {
+        int consumed = 0;
+        for (int i = 0; i < OUTPUT_COUNT; i++) {
+            if (mConsumerCounts[i] > 0) {
+                consumed |= 1 << i;
+            }
+        }
+        if ((consumed & OUTPUT_GESTURE) != 0 && (mConsumedOutputs & OUTPUT_GESTURE) == 0
+                && mGestureRecognizer != null) {
+            // the columns hold paths of the samples skipped while nobody listened.
+            mGestureRecognizer.reset();
+        }
+        mConsumedOutputs = consumed;
+    }
+
+    private void updateThresholds(float[] tilt, int direction, boolean shakeUpdated) {
+        // the calibrator takes the noise only while the device is still.
+        mThresholdCalibrator.update(tilt, direction, shakeUpdated ? mShakeDetector : null);
+        if (++mThresholdUpdateCounter >= THRESHOLD_UPDATE_INTERVAL) {
+            mThresholdUpdateCounter = 0;
+            mThresholdCalibrator.applyTo(mDirectionClassifier, mShakeDetector);
+        }
+    }
+
+    // TiltSensorEvent.updateVelocity.
+    private void updateVelocity(View view, float dt) {
+        final float[] g = mGravitation;
+        final float[] r = mReference;
+        final float cos = g[0] * r[0] + g[1] * r[1] + g[2] * r[2];
+        mPrevViewScrollX = mViewScrollX;
+        mPrevViewScrollY = mViewScrollY;
+        mViewScrollX = view.getScrollX();
+        mViewScrollY = view.getScrollY();
+        if (mIsPhysicallyTouched) {
+            mVelocityX = -(mViewScrollX - mPrevViewScrollX) / dt;
+            mVelocityY = -(mViewScrollY - mPrevViewScrollY) / dt;
+        }
+        if (Math.abs(mVelocityX) < 1.0f && (mFlingState & SHAKE_X) != 0) {
+            mFlingState &= ~SHAKE_X;
+            mVelocityX = 0.0f;
+            mVelocityY = 0.0f;
+        }
+        if (Math.abs(mVelocityY) < 1.0f && (mFlingState & SHAKE_Y) != 0) {
+            mFlingState &= ~SHAKE_Y;
+            mVelocityX = 0.0f;
+            mVelocityY = 0.0f;
+        }
+        if ((mFlingState & TiltSensorEvent.FLING_MASK) != 0) {
+            mVelocityX += 0.0625f * (mFlingVelocityX - mVelocityX);
+            mVelocityY += 0.0625f * (mFlingVelocityY - mVelocityY);
+            return;
+        }
+        // shaking boosts the acceleration 8 times.
+        final float boostX = (mFlingState & (TiltSensorEvent.SHAKE_LEFT | TiltSensorEvent.SHAKE_RIGHT)) != 0 ? 8.0f : 1.0f;
+        final float boostY = (mFlingState & (TiltSensorEvent.SHAKE_FORWARD | TiltSensorEvent.SHAKE_BACK)) != 0 ? 8.0f : 1.0f;
+        final float slidingX = slidingCoefficientOf(mSlidingCoefficientX, mVelocityX, INV_THRESHOLD_VELOCITY_X);
+        mVelocityX += ((g[0] - cos * r[0]) * STANDARD_GRAVITY * slidingX * boostX - mVelocityX * 1.25f) * dt;
+        final float slidingY = slidingCoefficientOf(mSlidingCoefficientY, mVelocityY, INV_THRESHOLD_VELOCITY_Y);
+        mVelocityY += ((g[1] - cos * r[1]) * STANDARD_GRAVITY * slidingY * boostY - mVelocityY * 1.25f) * dt;
+    }
+
+    private static float slidingCoefficientOf(float coefficient, float velocity, float invThreshold) {
+        final float c = coefficient * (SLIDING_COEFFICIENT_MIN_MAX_RATIO
+                + (1.0f - SLIDING_COEFFICIENT_MIN_MAX_RATIO) * Math.abs(velocity) * invThreshold);
+        return c < coefficient ? c : coefficient;
+    }
+
+    // TiltSensorEvent.updatePointerPosition. TiltSensorEvent logs the sliding coefficients of every sample
+    // (a StringBuilder and a Log.d each), so the integration is traced by TiltTracer instead.
+    private void updatePointerPosition(View view, long timestamp) {
+        final float dt = (timestamp - mPrevTimestamp) * 1e-9f;
+        updateVelocity(view, dt);
+        if (TiltTracer.isEnabled()) {
+            TiltTracer.trace(TiltTracer.EVENT_INTEGRATE, mFlingState, (int) ((timestamp - mPrevTimestamp) / 1000L), 0,
+                    mVelocityX, mVelocityY);
+        }
+        final float left = mViewLeft;
+        final float right = mViewRight;
+        final float top = mViewTop;
+        final float bottom = mViewBottom;
+        float x = mX;
+        float y = mY;
+        if (x < left || right < x || y < top || bottom < y) {
+            x -= (right - left) * (int) ((x - left) / (right - left));
+            y -= (bottom - top) * (int) ((y - top) / (bottom - top));
+            if (x < left) {
+                x += right - left;
+            }
+            if (y < top) {
+                y += bottom - top;
+            }
+        }
+        mPrevX = x;
+        mPrevY = y;
+        mX = x - dt * mVelocityX;
+        mY = y + dt * mVelocityY;
+        mPrevTimestamp = timestamp;
+    }
+
+    private void resetFlingIfReleased() {
+        if (!mIsPhysicallyTouched || (mFlingState & TiltSensorEvent.FLING_MASK) == 0) {
+            mVelocityX = 0.0f;
+            mVelocityY = 0.0f;
+            mFlingState = TiltSensorEvent.FLING_NONE;
+        }
+    }
+
+    /**
+     * @return false if the session was closed during the dispatch.
+     */
+    private boolean sendMotionEvent(View view, long downTime, long eventTime, int action, float x, float y) {
+        final MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, x, y, 0);
+        event.setSource(InputDevice.SOURCE_TOUCHSCREEN);
+        mAction = action;
+        mDownTime = downTime;
+        mX = x;
+        mY = y;
+        mLastEventPhysical = false;
+        final long start = SystemClock.elapsedRealtimeNanos();
+        view.dispatchTouchEvent(event);
+        event.recycle();
+        mManager.onDispatched(action, x, y, mSampleTimestamp, start);
+        return !mClosed;
+    }
+
+    /**
+     * dispatch the event. if the pointer went out of the view, split the stroke at the edge of the view
+     * and restart it from the opposite edge (same as TiltSensorService).
+     */
+    private void dispatchWithinBounds(View view, long downTime, long eventTime, int action, float x, float y) {
+        final float left = mViewLeft;
+        final float right = mViewRight;
+        final float top = mViewTop;
+        final float bottom = mViewBottom;
+        final long interval = mManager.getEventInterval();
+        if (x < left || right < x || y < top || bottom < y) {
+            float prevX = mPrevX;
+            float prevY = mPrevY;
+            final float edgeX = x > prevX ? right : left;
+            final float reEntryX = x > prevX ? left : right;
+            final float edgeY = y > prevY ? bottom : top;
+            final float reEntryY = y > prevY ? top : bottom;
+            while (true) {
+                final float dx = x - prevX;
+                final float dy = y - prevY;
+                final float ratioX = Math.abs(dx) < 0.5f ? 1.0f : (edgeX - prevX) / dx;
+                final float ratioY = Math.abs(dy) < 0.5f ? 1.0f : (edgeY - prevY) / dy;
+                final boolean crossX = ratioX < 1.0f && (ratioY >= 1.0f || ratioX <= ratioY);
+                final boolean crossY = ratioY < 1.0f && (ratioX >= 1.0f || ratioY <= ratioX);
+                if (!crossX && !crossY) {
+                    break;
+                }
+                float edgeHitX = crossX ? edgeX : prevX + ratioY * dx;
+                float edgeHitY = crossY ? edgeY : prevY + ratioX * dy;
+                if (!sendMotionEvent(view, downTime, eventTime, MotionEvent.ACTION_MOVE, edgeHitX, edgeHitY)) {
+                    return;
+                }
+                eventTime += interval;
+                if (!sendMotionEvent(view, downTime, eventTime, MotionEvent.ACTION_UP, edgeHitX, edgeHitY)) {
+                    return;
+                }
+                prevX = edgeHitX;
+                prevY = edgeHitY;
+                if (crossX) {
+                    x += reEntryX - edgeX;
+                    prevX = reEntryX;
+                }
+                if (crossY) {
+                    y += reEntryY - edgeY;
+                    prevY = reEntryY;
+                }
+                downTime = eventTime + interval;
+                eventTime = downTime;
+                if (!sendMotionEvent(view, downTime, eventTime, MotionEvent.ACTION_DOWN, prevX, prevY)) {
+                    return;
+                }
+                mManager.getCounters().onBoundaryReanchor();
+                eventTime += interval;
+            }
+        }
+        sendMotionEvent(view, downTime, eventTime, action, x, y);
+    }
+}
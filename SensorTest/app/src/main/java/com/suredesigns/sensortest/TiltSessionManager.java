@@ -0,0 +1,595 @@
+package com.suredesigns.sensortest;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * owner of the {@link TiltSession}s of a process.
+ *
+ * all the sessions share one registration of the gravity sensor. each sample is normalized once
+ * and handed to every session in the order of creation. the sessions are kept in a copy-on-write array,
+ * so the sensor callback holds direct references to them and never looks anything up.
+ *
+ * the stages which watch the sensor rather than a view belong to the manager: the stillness suspension,
+ * the rate analysis, the flight recorder, the stage profiler and the metrics of the dispatches.
+ * {@link TiltSensorHost} is a manager of a single session.
+ *
+ * usage:
+ * <pre>
+ *     // Activity.onCreate
+ *     mSessionManager = new TiltSessionManager(this);
+ *     mListSession = mSessionManager.createSession(listView);
+ *     mMapSession = mSessionManager.createSession(mapView);
+ *     // Activity.onStart / onStop
+ *     mSessionManager.start();
+ *     mSessionManager.stop();
+ *     // Activity.onDestroy
+ *     mSessionManager.release();
+ * </pre>
+ * the manager keeps the application context only, and a closed session drops its view,
+ * so that the Activity is not retained after release().
+ *
+ * debug builds can check it with a {@link RetentionWatcher} kept across the Activity instances:
+ * <pre>
+ *     // Activity.onCreate
+ *     if (BuildConfig.DEBUG) {
+ *         mSessionManager.setRetentionWatcher(sRetentionWatcher);
+ *     }
+ * </pre>
+ * release() then checks, on a background thread, the views released by the previous instance,
+ * and watches the views of its sessions.
+ *
+ * the state and the counters are reported by dumpsys through the dump of the owning Service,
+ * which forwards to {@link #dump(FileDescriptor, PrintWriter, String[])}:
+ * <pre>
+ *     &#64;Override
+ *     protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+ *         super.dump(fd, writer, args);
+ *         mSessionManager.dump(fd, writer, args);
+ *     }
+ * </pre>
+ * and <code>adb shell dumpsys activity service &lt;component&gt; [--trace]</code> prints them.
+ * the dump of an Activity (<code>dumpsys activity &lt;component&gt;</code>) calls {@link #dump(String, PrintWriter)}
+ * with its prefix the same way.
+ */
+public class TiltSessionManager implements SensorEventListener {
+    public static final String TAG = TiltSessionManager.class.getSimpleName();
+
+    private static final TiltSession[] EMPTY = new TiltSession[0];
+
+    /** listener of the sessions. called on the thread of the sensor listener. */
+    public interface OnSessionEventListener {
+        public void onReferenceChanged(TiltSession session);
+    }
+
+    private final SensorManager mSensorManager;
+    private final Sensor mGravitySensor;
+    private final float[] mSample = new float[3];
+    private volatile TiltSession[] mSessions = EMPTY;
+    private boolean mStarted;
+    private boolean mRegistered;
+    private int mDelayRate = SensorManager.SENSOR_DELAY_UI;
+    // interval between synthetic events [ms].
+    private long mEventInterval = (getDelayTime() + 500) / 1000;
+    private OnSessionEventListener mListener;
+    private SensorSuspender mSuspender;
+
+    // milestones from start() to the first scroll.
+    private final StartupMilestones mStartup = new StartupMilestones();
+    private final LatencyHistogram mDispatchLatency = new LatencyHistogram();
+    private final TiltCounters mCounters = new TiltCounters();
+    private FrameDispatchMonitor mFrameMonitor;
+    private FlightRecorder mFlightRecorder;
+    private StageProfiler mProfiler;
+    private SensorRateAnalyzer mRateAnalyzer;
+    private RetentionWatcher mRetentionWatcher;
+
+    public TiltSessionManager(Context context) {
+        // the sensor manager of an Activity context refers to the Activity.
+        mSensorManager = (SensorManager) context.getApplicationContext().getSystemService(Context.SENSOR_SERVICE);
+        mGravitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
+    }
+
+    /**
+     * create a session scrolling the view, and install its touch listener.
+     */
+    public TiltSession createSession(View view) {
+        return createSession(view, null);
+    }
+
+    /**
+     * @param onTouchListener listener of the view called after the session, or null.
+     */
+    public TiltSession createSession(View view, View.OnTouchListener onTouchListener) {
+        if (view == null) {
+            throw new IllegalArgumentException("view must not be null");
+        }
+        final TiltSession session = new TiltSession(this, view);
+        session.attachTouchListener(onTouchListener);
+        synchronized (this) {
+            final TiltSession[] sessions = mSessions;
+            final TiltSession[] next = new TiltSession[sessions.length + 1];
+            System.arraycopy(sessions, 0, next, 0, sessions.length);
+            next[sessions.length] = session;
+            mSessions = next;
+        }
+        updateRegistration();
+        return session;
+    }
+
+    void closeSession(TiltSession session) {
+        synchronized (this) {
+            final TiltSession[] sessions = mSessions;
+            int index = -1;
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] == session) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            final TiltSession[] next = new TiltSession[sessions.length - 1];
+            System.arraycopy(sessions, 0, next, 0, index);
+            System.arraycopy(sessions, index + 1, next, index, next.length - index);
+            mSessions = next;
+        }
+        session.markClosed();
+        updateRegistration();
+    }
+
+    public int getSessionCount() {
+        return mSessions.length;
+    }
+
+    /**
+     * @param watcher watcher of the released views (debug builds), or null.
+     */
+    public void setRetentionWatcher(RetentionWatcher watcher) {
+        mRetentionWatcher = watcher;
+    }
+
+    public void setOnSessionEventListener(OnSessionEventListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param delayRate SensorManager.SENSOR_DELAY_* or the rate in microseconds.
+     */
+    public void setDelayRate(int delayRate) {
+        mDelayRate = delayRate;
+        mEventInterval = (getDelayTime() + 500) / 1000;
+        if (mSuspender != null) {
+            mSuspender.setDelayRate(delayRate);
+        }
+        if (mRateAnalyzer != null) {
+            mRateAnalyzer.setRequestedPeriod(getDelayTime() * 1000L);
+        }
+        if (mRegistered) {
+            mSensorManager.unregisterListener(this);
+            mRegistered = false;
+            updateRegistration();
+        }
+    }
+
+    public int getDelayRate() {
+        return mDelayRate;
+    }
+
+    /**
+     * @param frameMonitor monitor of the events dispatched by all the sessions per display frame, or null.
+     * it is started while the manager is started, to compare the delay rates.
+     */
+    public void setFrameDispatchMonitor(FrameDispatchMonitor frameMonitor) {
+        if (mFrameMonitor != null && mStarted) {
+            mFrameMonitor.stop();
+        }
+        mFrameMonitor = frameMonitor;
+        if (frameMonitor != null && mStarted) {
+            frameMonitor.start();
+        }
+    }
+
+    public FrameDispatchMonitor getFrameDispatchMonitor() {
+        return mFrameMonitor;
+    }
+
+    /**
+     * suspend the gravity sensor after the device has been still for the quiet period.
+     * @param quietPeriodNs quiet period in nanoseconds, or 0 to disable the suspension.
+     */
+    public void setStillnessSuspension(long quietPeriodNs) {
+        if (quietPeriodNs <= 0L) {
+            if (mSuspender != null) {
+                mSuspender.release();
+                mSuspender = null;
+            }
+            return;
+        }
+        if (mSuspender == null) {
+            final SensorSuspender suspender = new SensorSuspender(mSensorManager, mGravitySensor, this, mDelayRate);
+            if (!suspender.isAvailable()) {
+                // nothing could wake the gravity sensor up.
+                return;
+            }
+            suspender.setCallback(new SensorSuspender.Callback() {
+                @Override
+                public void onSuspended() {
+                    if (TiltTracer.isEnabled()) {
+                        TiltTracer.trace(TiltTracer.EVENT_SUSPEND, 0, 0);
+                    }
+                }
+
+                @Override
+                public void onResumed(float[] lastGravity, long lastTimestamp) {
+                    if (TiltTracer.isEnabled()) {
+                        TiltTracer.trace(TiltTracer.EVENT_SUSPEND, 1, 0);
+                    }
+                    final TiltSession[] sessions = mSessions;
+                    for (int i = 0; i < sessions.length; i++) {
+                        sessions[i].restore(lastGravity, lastTimestamp);
+                    }
+                    if (mRateAnalyzer != null) {
+                        mRateAnalyzer.restart();
+                    }
+                }
+            });
+            suspender.setEnabled(mStarted);
+            mSuspender = suspender;
+        }
+        mSuspender.setQuietPeriod(quietPeriodNs);
+    }
+
+    /**
+     * @param flightRecorder recorder of the samples and the dispatched events, or null.
+     * its frame monitor runs while the manager is started. with several sessions, a record holds the state
+     * and the last dispatch of the last session which processed the sample.
+     */
+    public void setFlightRecorder(FlightRecorder flightRecorder) {
+        if (mFlightRecorder != null && mStarted) {
+            mFlightRecorder.stopFrameMonitor();
+        }
+        mFlightRecorder = flightRecorder;
+        if (flightRecorder != null && mStarted) {
+            flightRecorder.startFrameMonitor();
+        }
+    }
+
+    public FlightRecorder getFlightRecorder() {
+        return mFlightRecorder;
+    }
+
+    /**
+     * @param profiler per-stage timing of the samples, or null. with several sessions,
+     * every session processing a measured sample adds its own stage times.
+     */
+    public void setStageProfiler(StageProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    public StageProfiler getStageProfiler() {
+        return mProfiler;
+    }
+
+    /**
+     * analyze the delivery of the gravity sensor against the requested rate.
+     * while the device delivers at another rate, the interval of the synthetic events follows the measured one.
+     * @param rateAnalyzer analyzer, or null. its requested period is set to the delay rate of the manager.
+     */
+    public void setSensorRateAnalyzer(SensorRateAnalyzer rateAnalyzer) {
+        mRateAnalyzer = rateAnalyzer;
+        mEventInterval = (getDelayTime() + 500) / 1000;
+        if (rateAnalyzer != null) {
+            rateAnalyzer.setRequestedPeriod(getDelayTime() * 1000L);
+        }
+    }
+
+    public SensorRateAnalyzer getSensorRateAnalyzer() {
+        return mRateAnalyzer;
+    }
+
+    /**
+     * @return interval of the samples in microseconds (same as TiltSensorEvent.getDelayTime()).
+     */
+    public int getDelayTime() {
+        switch (mDelayRate) {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+            case SensorManager.SENSOR_DELAY_GAME:
+                return 20000;
+            case SensorManager.SENSOR_DELAY_UI:
+                return 66667;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return 200000;
+            default:
+                return mDelayRate > 20000 ? mDelayRate : 20000;
+        }
+    }
+
+    /**
+     * @return interval between synthetic events [ms].
+     */
+    long getEventInterval() {
+        return mEventInterval;
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * register the gravity sensor if there is a session. call this in Activity.onStart.
+     * every session takes a new reference at its first sample.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStartup.resetFrom(StartupMilestones.MILESTONE_START);
+        mStartup.mark(StartupMilestones.MILESTONE_START);
+        mStarted = true;
+        // the time spent stopped must not be integrated by the first sample.
+        final TiltSession[] sessions = mSessions;
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i].restart();
+        }
+        if (mFlightRecorder != null) {
+            mFlightRecorder.clear();
+            mFlightRecorder.startFrameMonitor();
+        }
+        if (mFrameMonitor != null) {
+            mFrameMonitor.start();
+        }
+        updateRegistration();
+        if (mSuspender != null) {
+            mSuspender.setEnabled(true);
+        }
+    }
+
+    /**
+     * unregister the gravity sensor. call this in Activity.onStop.
+     */
+    public void stop() {
+        mStarted = false;
+        if (mSuspender != null) {
+            // resuming re-registers the gravity sensor, which is unregistered below.
+            mSuspender.setEnabled(false);
+            mSuspender.release();
+        }
+        if (mFlightRecorder != null) {
+            mFlightRecorder.stopFrameMonitor();
+        }
+        if (mFrameMonitor != null) {
+            mFrameMonitor.stop();
+        }
+        updateRegistration();
+    }
+
+    /**
+     * stop the manager and close all the sessions. call this in Activity.onDestroy.
+     */
+    public void release() {
+        stop();
+        final RetentionWatcher watcher = mRetentionWatcher;
+        if (watcher != null) {
+            // the collection blocks for a while, which would delay the next Activity (e.g. on a rotation).
+            watcher.checkInBackground();
+        }
+        final TiltSession[] sessions = mSessions;
+        for (int i = 0; i < sessions.length; i++) {
+            final View view = sessions[i].getView();
+            closeSession(sessions[i]);
+            if (watcher != null && view != null) {
+                watcher.watch(view, "view of session " + i);
+            }
+        }
+        setStillnessSuspension(0L);
+        mListener = null;
+        mFrameMonitor = null;
+        mFlightRecorder = null;
+        mRetentionWatcher = null;
+    }
+
+    /**
+     * @return time from start() to the first dispatched tilt event [ms], or -1 if no event has been dispatched yet.
+     */
+    public float getStartToFirstDispatchMillis() {
+        return mStartup.getMillis(StartupMilestones.MILESTONE_START, StartupMilestones.MILESTONE_FIRST_DISPATCH);
+    }
+
+    /**
+     * @return startup milestones since the last start(), over all the sessions.
+     */
+    public StartupMilestones getStartupMilestones() {
+        return mStartup;
+    }
+
+    /**
+     * @return histogram of the time from SensorEvent.timestamp to the return of View.dispatchTouchEvent,
+     * recorded for every event dispatched by any session.
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return mDispatchLatency;
+    }
+
+    /**
+     * @return counters of all the sessions. a sample is counted as processed if any session processed it.
+     */
+    public TiltCounters getCounters() {
+        return mCounters;
+    }
+
+    /**
+     * same arguments as Service.dump and Activity.dump, to which it is forwarded.
+     * "--trace" in the arguments prints the records of {@link TiltTracer} as well.
+     */
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        dump("", writer);
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if ("--trace".equals(args[i])) {
+                    TiltTracer.dump(writer);
+                    break;
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * print the state and the counters of the sessions.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + TAG + " : " + (mRegistered ? "registered" : mStarted ? "started" : "stopped"));
+        final String inner = prefix + "  ";
+        writer.println(inner + "sessions : " + mSessions.length);
+        final TiltSession[] sessions = mSessions;
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i].dump(inner + "  ", writer);
+        }
+        writer.println(inner + "event interval : " + mEventInterval + " ms");
+        if (mSuspender != null) {
+            writer.println(inner + "suspended : " + mSuspender.isSuspended());
+        }
+        mCounters.dump(inner, writer, mDispatchLatency);
+        if (mRateAnalyzer != null) {
+            mRateAnalyzer.dump(inner, writer);
+        }
+        if (mFrameMonitor != null) {
+            mFrameMonitor.dump(inner, writer);
+        }
+        mStartup.dump(inner, writer);
+        if (mProfiler != null) {
+            mProfiler.dump(inner, writer);
+        }
+        if (mRetentionWatcher != null) {
+            mRetentionWatcher.dump(inner, writer);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        final StageProfiler profiler = mProfiler;
+        if (profiler != null && profiler.beginSample()) {
+            processSample(event, profiler);
+            profiler.endSample();
+        } else {
+            processSample(event, null);
+        }
+    }
+
+    // @param profiler the profiler if this sample is measured, or null.
+    private void processSample(SensorEvent event, StageProfiler profiler) {
+        final long timestamp = event.timestamp;
+        mCounters.onSampleReceived(timestamp);
+        mStartup.mark(StartupMilestones.MILESTONE_FIRST_SAMPLE);
+        if (TiltTracer.isEnabled()) {
+            TiltTracer.trace(TiltTracer.EVENT_SAMPLE, (int) ((SystemClock.elapsedRealtimeNanos() - timestamp) / 1000L), 0);
+        }
+        if (mRateAnalyzer != null && mRateAnalyzer.update(timestamp)) {
+            onRateConformanceChanged(mRateAnalyzer);
+        }
+        if (mFlightRecorder != null) {
+            mFlightRecorder.recordSample(timestamp, event.values);
+        }
+        final float[] values = event.values;
+        final float norm = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        if (norm == 0.0f) {
+            return;
+        }
+        final float invNorm = 1.0f / norm;
+        final float[] sample = mSample;
+        sample[0] = values[0] * invNorm;
+        sample[1] = values[1] * invNorm;
+        sample[2] = values[2] * invNorm;
+        // the stillness tolerance of the suspender is for unit vectors.
+        if (mSuspender != null && mSuspender.onGravitySample(sample, timestamp)) {
+            return;
+        }
+        final TiltSession[] sessions = mSessions;
+        boolean processed = false;
+        for (int i = 0; i < sessions.length; i++) {
+            processed |= sessions[i].onSample(sample, timestamp, profiler);
+        }
+        if (processed) {
+            mCounters.onSampleProcessed();
+        }
+    }
+
+    void onReferenceChanged(TiltSession session) {
+        mStartup.mark(StartupMilestones.MILESTONE_FIRST_REFERENCE);
+        final OnSessionEventListener listener = mListener;
+        if (listener != null) {
+            listener.onReferenceChanged(session);
+        }
+    }
+
+    void onStateUpdated(float[] tilt, int direction, int flingState) {
+        if (mFlightRecorder != null) {
+            mFlightRecorder.recordState(tilt[0], tilt[1], direction, flingState);
+        }
+    }
+
+    /**
+     * @param start SystemClock.elapsedRealtimeNanos() before View.dispatchTouchEvent.
+     */
+    void onDispatched(int action, float x, float y, long sampleTimestamp, long start) {
+        final long now = SystemClock.elapsedRealtimeNanos();
+        if (mFrameMonitor != null) {
+            mFrameMonitor.onDispatch(action, now - start);
+        }
+        // SensorEvent.timestamp is in the time base of elapsedRealtimeNanos.
+        mDispatchLatency.record(now - sampleTimestamp);
+        mCounters.onDispatch();
+        if (mFlightRecorder != null) {
+            mFlightRecorder.recordDispatch(action, x, y, now - sampleTimestamp, now);
+        }
+        mStartup.markAt(StartupMilestones.MILESTONE_FIRST_DISPATCH, now);
+        if (action == MotionEvent.ACTION_MOVE) {
+            mStartup.markAt(StartupMilestones.MILESTONE_FIRST_MOVE, now);
+        }
+    }
+
+    private void onRateConformanceChanged(SensorRateAnalyzer analyzer) {
+        final int conformance = analyzer.getConformance();
+        if (conformance == SensorRateAnalyzer.CONFORMING) {
+            mEventInterval = (getDelayTime() + 500) / 1000;
+        } else {
+            mEventInterval = Math.max(1L, ((long) analyzer.getMeasuredPeriod() + 500000L) / 1000000L);
+        }
+        Log.w(TAG, "sensor rate " + SensorRateAnalyzer.conformanceToString(conformance)
+                + " : requested " + getDelayTime() + " us, measured " + (long) analyzer.getMeasuredPeriod() / 1000L + " us");
+    }
+
+    private void updateRegistration() {
+        final boolean needed = mStarted && mSessions.length > 0;
+        if (needed == mRegistered) {
+            return;
+        }
+        if (needed) {
+            if (mGravitySensor == null) {
+                Log.w(TAG, "gravity sensor is not available");
+                return;
+            }
+            mSensorManager.registerListener(this, mGravitySensor, mDelayRate);
+            mStartup.mark(StartupMilestones.MILESTONE_REGISTER);
+        } else {
+            mSensorManager.unregisterListener(this);
+        }
+        mRegistered = needed;
+    }
+}
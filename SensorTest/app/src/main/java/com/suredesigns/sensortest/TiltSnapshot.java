@@ -0,0 +1,100 @@
+package com.suredesigns.sensortest;
+
+/**
+ * latest tilt state, published by the sensor thread and read from any thread (e.g. a GL render thread).
+ *
+ * the fields are guarded by a sequence lock: the writer makes the sequence odd, writes the fields and
+ * makes it even again. a reader copies the fields between two reads of the sequence and retries if the
+ * sequence was odd or has changed. the writer never waits, the reader never blocks the writer,
+ * and neither of them allocates.
+ *
+ * the fields are volatile, so the reads of the fields can't move out of the two reads of the sequence.
+ * there is only one writer (the thread of the sensor listener).
+ */
+public final class TiltSnapshot {
+    /** one consistent state. allocate it once per reader and pass it to {@link #read(State)}. */
+    public static final class State {
+        /** timestamp of the sample in nanoseconds, or 0 if nothing has been published. */
+        public long timestamp;
+        /** tilt vector (forward(-) / back(+), left(-) / right(+)). */
+        public float tiltX;
+        public float tiltY;
+        /** velocity of the pointer [px/s]. */
+        public float velocityX;
+        public float velocityY;
+        /** position of the pointer [px]. */
+        public float x;
+        public float y;
+        /** FLING_* and SHAKE_* bits of {@link TiltSensorEvent}. */
+        public int flingState;
+        /** TILT_* bits of {@link TiltSensorEvent}. */
+        public int direction;
+        /** sequence of the state (increases with every published sample). */
+        public int sequence;
+    }
+
+    private volatile int mSequence;
+    private volatile long mTimestamp;
+    private volatile float mTiltX;
+    private volatile float mTiltY;
+    private volatile float mVelocityX;
+    private volatile float mVelocityY;
+    private volatile float mX;
+    private volatile float mY;
+    private volatile int mFlingState;
+    private volatile int mDirection;
+
+    /**
+     * publish a new state. call this only from the thread of the sensor listener.
+     */
+    public void publish(long timestamp, float tiltX, float tiltY, float velocityX, float velocityY,
+                        float x, float y, int flingState, int direction) {
+        final int sequence = mSequence;
+        mSequence = sequence + 1;
+        mTimestamp = timestamp;
+        mTiltX = tiltX;
+        mTiltY = tiltY;
+        mVelocityX = velocityX;
+        mVelocityY = velocityY;
+        mX = x;
+        mY = y;
+        mFlingState = flingState;
+        mDirection = direction;
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * copy the latest consistent state.
+     * @return the same state object.
+     */
+    public State read(State state) {
+        while (true) {
+            final int sequence = mSequence;
+            if ((sequence & 1) != 0) {
+                // the writer is in the middle of the update, which takes a few stores.
+                Thread.yield();
+                continue;
+            }
+            state.timestamp = mTimestamp;
+            state.tiltX = mTiltX;
+            state.tiltY = mTiltY;
+            state.velocityX = mVelocityX;
+            state.velocityY = mVelocityY;
+            state.x = mX;
+            state.y = mY;
+            state.flingState = mFlingState;
+            state.direction = mDirection;
+            if (mSequence == sequence) {
+                state.sequence = sequence >>> 1;
+                return state;
+            }
+        }
+    }
+
+    /**
+     * @return sequence of the latest state. a reader can skip {@link #read(State)} if it has not changed.
+     */
+    public int getSequence() {
+        return mSequence >>> 1;
+    }
+}
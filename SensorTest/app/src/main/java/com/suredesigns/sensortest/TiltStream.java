@@ -0,0 +1,300 @@
+package com.suredesigns.sensortest;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * stream of the processed tilt samples with backpressure.
+ *
+ * a subscriber requests N samples at a time, and the samples are delivered on its own Executor,
+ * so a slow subscriber never blocks the sensor thread. what happens to the samples the subscriber
+ * can't take yet is chosen per subscription:
+ * <ul>
+ *     <li>{@link #OVERFLOW_LATEST} : only the latest sample is kept (seqlock, see {@link TiltSnapshot}).</li>
+ *     <li>{@link #OVERFLOW_DROP} : samples arriving without outstanding demand are dropped.</li>
+ *     <li>{@link #OVERFLOW_BUFFER} : samples are buffered up to the capacity, and dropped beyond it.</li>
+ * </ul>
+ * the samples are kept in primitive single-producer / single-consumer ring buffers, so {@link #publish}
+ * allocates nothing. the delivery is scheduled on the Executor only when the subscriber is idle.
+ */
+public final class TiltStream {
+    public static final int OVERFLOW_LATEST = 0;
+    public static final int OVERFLOW_DROP = 1;
+    public static final int OVERFLOW_BUFFER = 2;
+
+    /** receiver of the samples. the methods are called on the Executor given to subscribe(). */
+    public interface Subscriber {
+        /**
+         * called first. no sample is delivered until {@link Subscription#request(long)} is called.
+         */
+        public void onSubscribe(Subscription subscription);
+
+        /**
+         * @param timestamp timestamp of the sample in nanoseconds.
+         * @param tiltX tilt, forward(-) / back(+).
+         * @param tiltY tilt, left(-) / right(+).
+         * @param velocityX velocity of the pointer [px/s].
+         * @param velocityY velocity of the pointer [px/s].
+         * @param flingState FLING_* and SHAKE_* bits of {@link TiltSensorEvent}.
+         */
+        public void onSample(long timestamp, float tiltX, float tiltY, float velocityX, float velocityY, int flingState);
+    }
+
+    public interface Subscription {
+        /**
+         * request n more samples. Long.MAX_VALUE for an unbounded demand.
+         */
+        public void request(long n);
+
+        public void cancel();
+
+        /**
+         * @return number of the samples dropped by the overflow strategy.
+         */
+        public long getDroppedCount();
+    }
+
+    private static final Channel[] EMPTY = new Channel[0];
+    // floats per sample in the ring buffer.
+    private static final int FLOATS = 4;
+
+    private final Object mLock = new Object();
+    private volatile Channel[] mChannels = EMPTY;
+
+    /**
+     * @param executor executor delivering the samples (e.g. a Handler of a worker thread, or a single thread executor).
+     * @param overflow OVERFLOW_* strategy.
+     * @param capacity size of the buffer for OVERFLOW_DROP and OVERFLOW_BUFFER (ignored for OVERFLOW_LATEST).
+     */
+    public Subscription subscribe(Subscriber subscriber, Executor executor, int overflow, int capacity) {
+        if (subscriber == null || executor == null) {
+            throw new IllegalArgumentException("subscriber and executor must not be null");
+        }
+        if (overflow < OVERFLOW_LATEST || overflow > OVERFLOW_BUFFER) {
+            throw new IllegalArgumentException("unknown overflow strategy : " + overflow);
+        }
+        if (overflow != OVERFLOW_LATEST && capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive : " + capacity);
+        }
+        final Channel channel = new Channel(this, subscriber, executor, overflow, capacity);
+        synchronized (mLock) {
+            final Channel[] channels = mChannels;
+            final Channel[] next = new Channel[channels.length + 1];
+            System.arraycopy(channels, 0, next, 0, channels.length);
+            next[channels.length] = channel;
+            mChannels = next;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                channel.mSubscriber.onSubscribe(channel);
+            }
+        });
+        return channel;
+    }
+
+    public int getSubscriberCount() {
+        return mChannels.length;
+    }
+
+    /**
+     * publish a sample to all the subscribers. call this only from the thread of the sensor listener.
+     */
+    public void publish(long timestamp, float tiltX, float tiltY, float velocityX, float velocityY, int flingState) {
+        final Channel[] channels = mChannels;
+        for (int i = 0; i < channels.length; i++) {
+            channels[i].offer(timestamp, tiltX, tiltY, velocityX, velocityY, flingState);
+        }
+    }
+
+    private void remove(Channel channel) {
+        synchronized (mLock) {
+            final Channel[] channels = mChannels;
+            int index = -1;
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == channel) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            if (channels.length == 1) {
+                mChannels = EMPTY;
+                return;
+            }
+            final Channel[] next = new Channel[channels.length - 1];
+            System.arraycopy(channels, 0, next, 0, index);
+            System.arraycopy(channels, index + 1, next, index, next.length - index);
+            mChannels = next;
+        }
+    }
+
+    private static final class Channel implements Subscription, Runnable {
+        final TiltStream mStream;
+        final Subscriber mSubscriber;
+        final Executor mExecutor;
+        final int mOverflow;
+
+        // outstanding demand, Long.MAX_VALUE if unbounded.
+        final AtomicLong mRequested = new AtomicLong();
+        // number of pending drain requests (the drain runs while it is not 0).
+        final AtomicInteger mWip = new AtomicInteger();
+        volatile boolean mCancelled;
+        volatile long mDropped;
+
+        // OVERFLOW_LATEST.
+        final TiltSnapshot mLatest;
+        final TiltSnapshot.State mLatestState;
+        int mDeliveredSequence;
+
+        // OVERFLOW_DROP / OVERFLOW_BUFFER : ring buffer written by the sensor thread, read by the drain.
+        final int mCapacity;
+        final long[] mTimestamps;
+        final float[] mValues;
+        final int[] mFlingStates;
+        volatile long mHead;
+        volatile long mTail;
+
+        Channel(TiltStream stream, Subscriber subscriber, Executor executor, int overflow, int capacity) {
+            mStream = stream;
+            mSubscriber = subscriber;
+            mExecutor = executor;
+            mOverflow = overflow;
+            if (overflow == OVERFLOW_LATEST) {
+                mLatest = new TiltSnapshot();
+                mLatestState = new TiltSnapshot.State();
+                mCapacity = 0;
+                mTimestamps = null;
+                mValues = null;
+                mFlingStates = null;
+            } else {
+                mLatest = null;
+                mLatestState = null;
+                mCapacity = capacity;
+                mTimestamps = new long[capacity];
+                mValues = new float[capacity * FLOATS];
+                mFlingStates = new int[capacity];
+            }
+        }
+
+        // sensor thread.
+        void offer(long timestamp, float tiltX, float tiltY, float velocityX, float velocityY, int flingState) {
+            if (mCancelled) {
+                return;
+            }
+            if (mOverflow == OVERFLOW_LATEST) {
+                mLatest.publish(timestamp, tiltX, tiltY, velocityX, velocityY, 0.0f, 0.0f, flingState, 0);
+            } else {
+                if (mOverflow == OVERFLOW_DROP && mRequested.get() == 0L) {
+                    mDropped++;
+                    return;
+                }
+                final long tail = mTail;
+                if (tail - mHead >= mCapacity) {
+                    mDropped++;
+                    return;
+                }
+                final int index = (int) (tail % mCapacity);
+                mTimestamps[index] = timestamp;
+                final int base = index * FLOATS;
+                mValues[base] = tiltX;
+                mValues[base + 1] = tiltY;
+                mValues[base + 2] = velocityX;
+                mValues[base + 3] = velocityY;
+                mFlingStates[index] = flingState;
+                mTail = tail + 1;
+            }
+            if (mRequested.get() != 0L) {
+                schedule();
+            }
+        }
+
+        void schedule() {
+            if (mWip.getAndIncrement() == 0) {
+                mExecutor.execute(this);
+            }
+        }
+
+        // executor.
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                drain();
+                missed = mWip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            while (!mCancelled && mRequested.get() != 0L) {
+                if (mOverflow == OVERFLOW_LATEST) {
+                    if (mLatest.getSequence() == mDeliveredSequence) {
+                        return;
+                    }
+                    final TiltSnapshot.State state = mLatest.read(mLatestState);
+                    mDeliveredSequence = state.sequence;
+                    produced();
+                    mSubscriber.onSample(state.timestamp, state.tiltX, state.tiltY,
+                            state.velocityX, state.velocityY, state.flingState);
+                } else {
+                    final long head = mHead;
+                    if (head == mTail) {
+                        return;
+                    }
+                    final int index = (int) (head % mCapacity);
+                    final int base = index * FLOATS;
+                    final long timestamp = mTimestamps[index];
+                    final float tiltX = mValues[base];
+                    final float tiltY = mValues[base + 1];
+                    final float velocityX = mValues[base + 2];
+                    final float velocityY = mValues[base + 3];
+                    final int flingState = mFlingStates[index];
+                    mHead = head + 1;
+                    produced();
+                    mSubscriber.onSample(timestamp, tiltX, tiltY, velocityX, velocityY, flingState);
+                }
+            }
+        }
+
+        private void produced() {
+            while (true) {
+                final long requested = mRequested.get();
+                if (requested == Long.MAX_VALUE || mRequested.compareAndSet(requested, requested - 1)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0L) {
+                throw new IllegalArgumentException("n must be positive : " + n);
+            }
+            while (true) {
+                final long requested = mRequested.get();
+                final long next = requested + n < 0L ? Long.MAX_VALUE : requested + n;
+                if (mRequested.compareAndSet(requested, next)) {
+                    break;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            mStream.remove(this);
+        }
+
+        @Override
+        public long getDroppedCount() {
+            return mDropped;
+        }
+    }
+}
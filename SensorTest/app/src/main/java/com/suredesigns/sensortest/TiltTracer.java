@@ -0,0 +1,286 @@
+package com.suredesigns.sensortest;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * structured tracer of the tilt processing.
+ *
+ * Log.d with a built message costs a StringBuilder and a write to the log device per call.
+ * this tracer writes an event id and up to four primitive arguments with the timestamp into a preallocated
+ * ring buffer of ints, and the records are decoded to text only by {@link #dump(PrintWriter)}.
+ * {@link #save(File)} writes the raw records, which TiltTraceExporter (src/tools) converts to
+ * Chrome trace-event JSON or Perfetto protobuf.
+ *
+ * callers check {@link #isEnabled()} first, so a disabled tracer costs one branch, and set {@link #COMPILED}
+ * to false to let the compiler remove the tracing code completely.
+ * records are written by the thread of the sensor listener and the touch listeners (the main thread).
+ */
+public final class TiltTracer {
+    public static final String TAG = TiltTracer.class.getSimpleName();
+
+    /** false removes every trace call guarded by {@link #isEnabled()} at compile time. */
+    public static final boolean COMPILED = true;
+
+    /** touch event of a view. a : device id, b : action, c : VIEW_* flags of the view. */
+    public static final int EVENT_TOUCH = 1;
+    /** fling state changed. a : new FLING_* / SHAKE_* bits, b : previous bits. */
+    public static final int EVENT_FLING_STATE = 2;
+    /** tilt direction changed. a : new TILT_* bits, b : previous bits, x, y : tilt vector. */
+    public static final int EVENT_TILT_DIRECTION = 3;
+    /** reference orientation changed. */
+    public static final int EVENT_REFERENCE = 4;
+    /** gravity sensor suspended (a = 0) or resumed (a = 1). */
+    public static final int EVENT_SUSPEND = 5;
+    /** gravity sample arrived. a : delay from SensorEvent.timestamp [us]. */
+    public static final int EVENT_SAMPLE = 6;
+    /**
+     * end of a stage of a sample measured by {@link StageProfiler}. a : STAGE_*, b : duration [ns].
+     * the timestamp is the end of the stage, and the duration is measured with the same clock.
+     */
+    public static final int EVENT_STAGE = 7;
+    /** integration of a sample. a : FLING_* / SHAKE_* bits, b : time step [us], x, y : velocity [px/s]. */
+    public static final int EVENT_INTEGRATE = 8;
+
+    public static final int VIEW_ENABLED = 1;
+    public static final int VIEW_IN_TOUCH_MODE = 1 << 1;
+    public static final int VIEW_CLICKABLE = 1 << 2;
+    public static final int VIEW_LONG_CLICKABLE = 1 << 3;
+    public static final int VIEW_FOCUSABLE = 1 << 4;
+    public static final int VIEW_FOCUSABLE_IN_TOUCH_MODE = 1 << 5;
+    public static final int VIEW_FOCUSED = 1 << 6;
+    public static final int VIEW_KEEP_SCREEN_ON = 1 << 7;
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // record : event, timestamp (high, low), a, b, c, x, y.
+    static final int RECORD_SIZE = 8;
+    static final int MAGIC = 0x54545231; // "TTR1"
+    static final String[] EVENT_NAMES = {
+            "?", "touch", "fling", "direction", "reference", "suspend", "sample", "stage", "integrate",
+    };
+
+    private static boolean sEnabled;
+    private static int[] sBuffer = new int[0];
+    private static int sCapacity;
+    // number of records written since the last clear.
+    private static long sWritten;
+
+    private TiltTracer() {
+    }
+
+    public static boolean isEnabled() {
+        return COMPILED && sEnabled;
+    }
+
+    /**
+     * enable the tracer with a ring buffer of DEFAULT_CAPACITY records, or disable it (the records are kept).
+     */
+    public static void setEnabled(boolean enabled) {
+        if (enabled && sCapacity == 0) {
+            setCapacity(DEFAULT_CAPACITY);
+        }
+        sEnabled = enabled;
+    }
+
+    /**
+     * reallocate the ring buffer. the records are cleared.
+     */
+    public static synchronized void setCapacity(int records) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("capacity must be positive : " + records);
+        }
+        sBuffer = new int[records * RECORD_SIZE];
+        sCapacity = records;
+        sWritten = 0L;
+    }
+
+    public static void clear() {
+        sWritten = 0L;
+    }
+
+    public static void trace(int event) {
+        trace(event, 0, 0, 0, 0.0f, 0.0f);
+    }
+
+    public static void trace(int event, int a, int b) {
+        trace(event, a, b, 0, 0.0f, 0.0f);
+    }
+
+    public static void trace(int event, int a, int b, int c, float x, float y) {
+        traceAt(event, SystemClock.elapsedRealtimeNanos(), a, b, c, x, y);
+    }
+
+    /**
+     * trace with the timestamp read by the caller, for the events whose arguments are measured from it.
+     * @param timestamp SystemClock.elapsedRealtimeNanos.
+     */
+    public static void traceAt(int event, long timestamp, int a, int b) {
+        traceAt(event, timestamp, a, b, 0, 0.0f, 0.0f);
+    }
+
+    private static void traceAt(int event, long timestamp, int a, int b, int c, float x, float y) {
+        // the capacity is taken from the buffer, which setCapacity() may replace meanwhile.
+        final int[] buffer = sBuffer;
+        final int capacity = buffer.length / RECORD_SIZE;
+        if (capacity == 0) {
+            return;
+        }
+        final int base = (int) (sWritten % capacity) * RECORD_SIZE;
+        buffer[base] = event;
+        buffer[base + 1] = (int) (timestamp >>> 32);
+        buffer[base + 2] = (int) timestamp;
+        buffer[base + 3] = a;
+        buffer[base + 4] = b;
+        buffer[base + 5] = c;
+        buffer[base + 6] = Float.floatToRawIntBits(x);
+        buffer[base + 7] = Float.floatToRawIntBits(y);
+        sWritten++;
+    }
+
+    /**
+     * @return number of the records written since the last clear (including the overwritten ones).
+     */
+    public static long getWrittenCount() {
+        return sWritten;
+    }
+
+    /**
+     * write the records in the buffer to the file, oldest first, for TiltTraceExporter.
+     * format (big endian) : int magic "TTR1", int record count, records of RECORD_SIZE ints
+     * (event, timestamp high, timestamp low, a, b, c, float bits of x, float bits of y).
+     * the timestamps are SystemClock.elapsedRealtimeNanos (CLOCK_BOOTTIME).
+     */
+    public static synchronized boolean save(File file) {
+        final int capacity = sCapacity;
+        final long written = sWritten;
+        final int[] buffer = sBuffer;
+        final long first = Math.max(0L, written - capacity);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt((int) (written - first));
+            for (long n = first; n < written; n++) {
+                final int base = (int) (n % capacity) * RECORD_SIZE;
+                for (int i = 0; i < RECORD_SIZE; i++) {
+                    out.writeInt(buffer[base + i]);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save the trace to " + file, e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * decode the records in the buffer, oldest first.
+     */
+    public static synchronized void dump(PrintWriter writer) {
+        final int capacity = sCapacity;
+        final long written = sWritten;
+        final int[] buffer = sBuffer;
+        final long first = Math.max(0L, written - capacity);
+        writer.println("tilt trace : " + (written - first) + " of " + written + " records");
+        for (long n = first; n < written; n++) {
+            final int base = (int) (n % capacity) * RECORD_SIZE;
+            final int event = buffer[base];
+            final long timestamp = ((long) buffer[base + 1] << 32) | (buffer[base + 2] & 0xFFFFFFFFL);
+            final int a = buffer[base + 3];
+            final int b = buffer[base + 4];
+            final int c = buffer[base + 5];
+            final float x = Float.intBitsToFloat(buffer[base + 6]);
+            final float y = Float.intBitsToFloat(buffer[base + 7]);
+            writer.print(timestamp);
+            writer.print(' ');
+            writer.print(event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : EVENT_NAMES[0]);
+            writer.print(' ');
+            switch (event) {
+                case EVENT_TOUCH:
+                    writer.println("device " + a + ", action " + b + ", " + viewFlagsToString(c));
+                    break;
+                case EVENT_FLING_STATE:
+                    writer.println("0x" + Integer.toHexString(b) + " -> 0x" + Integer.toHexString(a));
+                    break;
+                case EVENT_TILT_DIRECTION:
+                    writer.println(b + " -> " + a + ", tilt (" + x + ", " + y + ")");
+                    break;
+                case EVENT_SUSPEND:
+                    writer.println(a == 0 ? "suspended" : "resumed");
+                    break;
+                case EVENT_SAMPLE:
+                    writer.println("delay " + a + " us");
+                    break;
+                case EVENT_STAGE:
+                    writer.println(StageProfiler.stageToString(a) + " " + b + " ns");
+                    break;
+                case EVENT_INTEGRATE:
+                    writer.println("dt " + b + " us, velocity (" + x + ", " + y + "), fling 0x"
+                            + Integer.toHexString(a));
+                    break;
+                default:
+                    writer.println(a + ", " + b + ", " + c + ", " + x + ", " + y);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return VIEW_* flags of the state of the view (same items as the log of TiltSensorEvent.defaultOnTouch).
+     */
+    public static int viewFlagsOf(View view) {
+        int flags = 0;
+        if (view.isEnabled()) {
+            flags |= VIEW_ENABLED;
+        }
+        if (view.isInTouchMode()) {
+            flags |= VIEW_IN_TOUCH_MODE;
+        }
+        if (view.isClickable()) {
+            flags |= VIEW_CLICKABLE;
+        }
+        if (view.isLongClickable()) {
+            flags |= VIEW_LONG_CLICKABLE;
+        }
+        if (view.isFocusable()) {
+            flags |= VIEW_FOCUSABLE;
+        }
+        if (view.isFocusableInTouchMode()) {
+            flags |= VIEW_FOCUSABLE_IN_TOUCH_MODE;
+        }
+        if (view.isFocused()) {
+            flags |= VIEW_FOCUSED;
+        }
+        if (view.getKeepScreenOn()) {
+            flags |= VIEW_KEEP_SCREEN_ON;
+        }
+        return flags;
+    }
+
+    private static String viewFlagsToString(int flags) {
+        return "enabled : " + ((flags & VIEW_ENABLED) != 0)
+                + ", inTouchMode : " + ((flags & VIEW_IN_TOUCH_MODE) != 0)
+                + ", clickable : " + ((flags & VIEW_CLICKABLE) != 0)
+                + ", longClickable : " + ((flags & VIEW_LONG_CLICKABLE) != 0)
+                + ", focusable : " + ((flags & VIEW_FOCUSABLE) != 0)
+                + ", focusableInTouchMode : " + ((flags & VIEW_FOCUSABLE_IN_TOUCH_MODE) != 0)
+                + ", focused : " + ((flags & VIEW_FOCUSED) != 0)
+                + ", keepScreen : " + ((flags & VIEW_KEEP_SCREEN_ON) != 0);
+    }
+}
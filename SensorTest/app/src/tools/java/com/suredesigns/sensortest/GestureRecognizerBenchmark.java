@@ -0,0 +1,71 @@
+package com.suredesigns.sensortest;
+
+/**
+ * JVM benchmark of {@link TiltGestureRecognizer}: cost per sample as the number of templates grows.
+ *
+ * it depends on no Android class, so it can be run on a workstation with the compiled classes of the app.
+ * it is in the tools source set (src/tools/java), which is not packaged in the APK:
+ * <pre>
+ *     javac -cp &lt;classes&gt; -d &lt;tools&gt; src/tools/java/com/suredesigns/sensortest/GestureRecognizerBenchmark.java
+ *     java -cp &lt;classes&gt;:&lt;tools&gt; com.suredesigns.sensortest.GestureRecognizerBenchmark
+ * </pre>
+ */
+public final class GestureRecognizerBenchmark {
+    private static final int TEMPLATE_LENGTH = 32;
+    private static final int WARMUP_SAMPLES = 200000;
+    private static final int MEASURED_SAMPLES = 1000000;
+    private static final long SAMPLE_INTERVAL_NS = 20000000L;
+
+    private GestureRecognizerBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("templates\tns/sample");
+        for (int templates = 1; templates <= TiltGestureRecognizer.MAX_TEMPLATES; templates *= 2) {
+            System.out.println(templates + "\t" + nanosPerSample(templates));
+        }
+    }
+
+    /**
+     * @return mean cost per sample in nanoseconds with the given number of templates.
+     */
+    public static double nanosPerSample(int templates) {
+        final TiltGestureRecognizer recognizer = new TiltGestureRecognizer();
+        for (int k = 0; k < templates; k++) {
+            recognizer.addTemplate(k, circle(TEMPLATE_LENGTH, 0.1f + 0.02f * k), 0.001f);
+        }
+        final float[] tilt = new float[3];
+        long timestamp = 0L;
+        int matches = 0;
+        for (int n = 0; n < WARMUP_SAMPLES; n++) {
+            matches += feed(recognizer, tilt, n, timestamp += SAMPLE_INTERVAL_NS);
+        }
+        final long start = System.nanoTime();
+        for (int n = 0; n < MEASURED_SAMPLES; n++) {
+            matches += feed(recognizer, tilt, n, timestamp += SAMPLE_INTERVAL_NS);
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (matches == Integer.MIN_VALUE) {
+            // keeps the loop from being eliminated.
+            System.out.println(matches);
+        }
+        return (double) elapsed / MEASURED_SAMPLES;
+    }
+
+    private static int feed(TiltGestureRecognizer recognizer, float[] tilt, int n, long timestamp) {
+        // slow wandering tilt with a little noise.
+        tilt[0] = 0.15f * (float) Math.sin(n * 0.013) + 0.01f * (float) Math.sin(n * 1.7);
+        tilt[1] = 0.15f * (float) Math.cos(n * 0.011) + 0.01f * (float) Math.cos(n * 2.3);
+        return recognizer.update(tilt, timestamp) >= 0 ? 1 : 0;
+    }
+
+    private static float[] circle(int length, float radius) {
+        final float[] points = new float[length * 2];
+        for (int i = 0; i < length; i++) {
+            final double angle = 2.0 * Math.PI * i / length;
+            points[2 * i] = radius * (float) Math.cos(angle);
+            points[2 * i + 1] = radius * (float) Math.sin(angle);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,422 @@
+package com.suredesigns.sensortest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * converter of the traces saved by {@link TiltTracer#save(java.io.File)} to Chrome trace-event JSON
+ * (chrome://tracing, ui.perfetto.dev) or Perfetto protobuf, to be opened next to system traces.
+ *
+ * the converter runs on a workstation with plain Java and the compiled classes of the app.
+ * it is in the tools source set (src/tools/java), which is not packaged in the APK:
+ * <pre>
+ *     adb pull /data/data/com.suredesigns.sensortest/files/tilt.trace
+ *     javac -cp app/build/intermediates/classes/debug -d tools \
+ *         app/src/tools/java/com/suredesigns/sensortest/TiltTraceExporter.java
+ *     java -cp app/build/intermediates/classes/debug:tools com.suredesigns.sensortest.TiltTraceExporter \
+ *         [--json | --perfetto] tilt.trace tilt.json
+ * </pre>
+ * the records are read and written one at a time, so the memory does not depend on the size of the trace.
+ * the timestamps are CLOCK_BOOTTIME, the default clock of Perfetto, so the events line up with a system trace
+ * of the same boot.
+ */
+public final class TiltTraceExporter {
+    private static final int PID = 1;
+    private static final int TID_EVENTS = 1;
+    private static final int TID_STAGES = 2;
+
+    // uuids of the Perfetto tracks.
+    private static final long TRACK_EVENTS = 1L;
+    private static final long TRACK_STAGES = 2L;
+    private static final long TRACK_FLING = 3L;
+    private static final long TRACK_DIRECTION = 4L;
+    private static final long TRACK_TILT_X = 5L;
+    private static final long TRACK_TILT_Y = 6L;
+    private static final long TRACK_SAMPLE_DELAY = 7L;
+    private static final long TRACK_VELOCITY_X = 8L;
+    private static final long TRACK_VELOCITY_Y = 9L;
+
+    /** receiver of the decoded records. */
+    private interface Sink {
+        public void instant(long timestamp, String name, String[] argNames, long[] args, int argCount) throws IOException;
+
+        public void slice(long timestamp, long duration, String name) throws IOException;
+
+        public void counter(long timestamp, long track, String name, double value) throws IOException;
+
+        public void close() throws IOException;
+    }
+
+    private TiltTraceExporter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean perfetto = false;
+        int index = 0;
+        if (args.length > 0 && args[0].startsWith("--")) {
+            if ("--perfetto".equals(args[0])) {
+                perfetto = true;
+            } else if (!"--json".equals(args[0])) {
+                usage();
+                return;
+            }
+            index++;
+        }
+        if (args.length - index != 2) {
+            usage();
+            return;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[index])));
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(args[index + 1]));
+        try {
+            final long count = export(in, perfetto ? new PerfettoSink(out) : new JsonSink(out));
+            System.out.println(count + " records written to " + args[index + 1]);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage : TiltTraceExporter [--json | --perfetto] <input> <output>");
+    }
+
+    /**
+     * @return number of the records converted.
+     */
+    private static long export(DataInputStream in, Sink sink) throws IOException {
+        if (in.readInt() != TiltTracer.MAGIC) {
+            throw new IOException("unknown format");
+        }
+        final int count = in.readInt();
+        final String[] argNames = new String[3];
+        final long[] args = new long[3];
+        long converted = 0L;
+        for (int n = 0; n < count; n++) {
+            final int event;
+            try {
+                event = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            final long timestamp = ((long) in.readInt() << 32) | (in.readInt() & 0xFFFFFFFFL);
+            final int a = in.readInt();
+            final int b = in.readInt();
+            final int c = in.readInt();
+            final float x = Float.intBitsToFloat(in.readInt());
+            final float y = Float.intBitsToFloat(in.readInt());
+            switch (event) {
+                case TiltTracer.EVENT_TOUCH:
+                    argNames[0] = "device";
+                    args[0] = a;
+                    argNames[1] = "action";
+                    args[1] = b;
+                    argNames[2] = "view flags";
+                    args[2] = c;
+                    sink.instant(timestamp, "touch", argNames, args, 3);
+                    break;
+                case TiltTracer.EVENT_FLING_STATE:
+                    sink.counter(timestamp, TRACK_FLING, "fling state", a);
+                    break;
+                case TiltTracer.EVENT_TILT_DIRECTION:
+                    sink.counter(timestamp, TRACK_DIRECTION, "tilt direction", a);
+                    sink.counter(timestamp, TRACK_TILT_X, "tilt x", x);
+                    sink.counter(timestamp, TRACK_TILT_Y, "tilt y", y);
+                    break;
+                case TiltTracer.EVENT_REFERENCE:
+                    sink.instant(timestamp, "reference", argNames, args, 0);
+                    break;
+                case TiltTracer.EVENT_SUSPEND:
+                    sink.instant(timestamp, a == 0 ? "suspended" : "resumed", argNames, args, 0);
+                    break;
+                case TiltTracer.EVENT_SAMPLE:
+                    sink.counter(timestamp, TRACK_SAMPLE_DELAY, "sample delay [us]", a);
+                    break;
+                case TiltTracer.EVENT_INTEGRATE:
+                    sink.counter(timestamp, TRACK_VELOCITY_X, "velocity x [px/s]", x);
+                    sink.counter(timestamp, TRACK_VELOCITY_Y, "velocity y [px/s]", y);
+                    break;
+                case TiltTracer.EVENT_STAGE:
+                    // the timestamp is the end of the stage and b its duration, both in elapsedRealtimeNanos.
+                    sink.slice(timestamp - b, b, StageProfiler.stageToString(a));
+                    break;
+                default:
+                    argNames[0] = "event";
+                    args[0] = event;
+                    sink.instant(timestamp, "unknown", argNames, args, 1);
+                    break;
+            }
+            converted++;
+        }
+        sink.close();
+        return converted;
+    }
+
+    // Chrome trace-event JSON, one event per line.
+    private static final class JsonSink implements Sink {
+        private final Writer mWriter;
+
+        JsonSink(OutputStream out) throws IOException {
+            mWriter = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+            mWriter.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            mWriter.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + PID + ",\"args\":{\"name\":\"tilt\"}},\n");
+            mWriter.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + PID + ",\"tid\":" + TID_EVENTS
+                    + ",\"args\":{\"name\":\"events\"}},\n");
+            mWriter.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + PID + ",\"tid\":" + TID_STAGES
+                    + ",\"args\":{\"name\":\"stages\"}}");
+        }
+
+        @Override
+        public void instant(long timestamp, String name, String[] argNames, long[] args, int argCount) throws IOException {
+            begin(name, "i", timestamp, TID_EVENTS);
+            mWriter.write(",\"s\":\"t\",\"args\":{");
+            for (int i = 0; i < argCount; i++) {
+                if (i > 0) {
+                    mWriter.write(',');
+                }
+                mWriter.write('"' + argNames[i] + "\":" + args[i]);
+            }
+            mWriter.write("}}");
+        }
+
+        @Override
+        public void slice(long timestamp, long duration, String name) throws IOException {
+            begin(name, "X", timestamp, TID_STAGES);
+            mWriter.write(",\"dur\":");
+            writeMicros(duration);
+            mWriter.write('}');
+        }
+
+        @Override
+        public void counter(long timestamp, long track, String name, double value) throws IOException {
+            begin(name, "C", timestamp, TID_EVENTS);
+            mWriter.write(",\"args\":{\"value\":" + value + "}}");
+        }
+
+        @Override
+        public void close() throws IOException {
+            mWriter.write("\n]}\n");
+            mWriter.flush();
+        }
+
+        private void begin(String name, String phase, long timestamp, int tid) throws IOException {
+            mWriter.write(",\n{\"name\":\"" + name + "\",\"ph\":\"" + phase + "\",\"pid\":" + PID + ",\"tid\":" + tid + ",\"ts\":");
+            writeMicros(timestamp);
+        }
+
+        // microseconds with three decimals, without the rounding of a double.
+        private void writeMicros(long nanos) throws IOException {
+            mWriter.write(Long.toString(nanos / 1000L));
+            final int fraction = (int) (Math.abs(nanos) % 1000L);
+            mWriter.write(fraction < 10 ? ".00" : fraction < 100 ? ".0" : ".");
+            mWriter.write(Integer.toString(fraction));
+        }
+    }
+
+    // Perfetto trace (perfetto.protos.Trace) of TrackEvents on custom tracks.
+    private static final class PerfettoSink implements Sink {
+        // fields of the protos.
+        private static final int TRACE_PACKET = 1;
+        private static final int PACKET_TIMESTAMP = 8;
+        private static final int PACKET_SEQUENCE_ID = 10;
+        private static final int PACKET_TRACK_EVENT = 11;
+        private static final int PACKET_SEQUENCE_FLAGS = 13;
+        private static final int PACKET_TRACK_DESCRIPTOR = 60;
+        private static final int DESCRIPTOR_UUID = 1;
+        private static final int DESCRIPTOR_NAME = 2;
+        private static final int DESCRIPTOR_COUNTER = 8;
+        private static final int EVENT_DEBUG_ANNOTATIONS = 4;
+        private static final int EVENT_TYPE = 9;
+        private static final int EVENT_TRACK_UUID = 11;
+        private static final int EVENT_NAME = 23;
+        private static final int EVENT_DOUBLE_COUNTER_VALUE = 44;
+        private static final int ANNOTATION_INT_VALUE = 4;
+        private static final int ANNOTATION_NAME = 10;
+        private static final int TYPE_SLICE_BEGIN = 1;
+        private static final int TYPE_SLICE_END = 2;
+        private static final int TYPE_INSTANT = 3;
+        private static final int TYPE_COUNTER = 4;
+        private static final int SEQ_INCREMENTAL_STATE_CLEARED = 1;
+        private static final int SEQUENCE_ID = 1;
+
+        private final OutputStream mOut;
+        // reused buffers of the nested messages.
+        private final ProtoBuffer mPacket = new ProtoBuffer();
+        private final ProtoBuffer mMessage = new ProtoBuffer();
+        private final ProtoBuffer mField = new ProtoBuffer();
+
+        PerfettoSink(OutputStream out) throws IOException {
+            mOut = out;
+            writeTrack(TRACK_EVENTS, "tilt events", false, true);
+            writeTrack(TRACK_STAGES, "tilt stages", false, false);
+            writeTrack(TRACK_FLING, "fling state", true, false);
+            writeTrack(TRACK_DIRECTION, "tilt direction", true, false);
+            writeTrack(TRACK_TILT_X, "tilt x", true, false);
+            writeTrack(TRACK_TILT_Y, "tilt y", true, false);
+            writeTrack(TRACK_SAMPLE_DELAY, "sample delay [us]", true, false);
+            writeTrack(TRACK_VELOCITY_X, "velocity x [px/s]", true, false);
+            writeTrack(TRACK_VELOCITY_Y, "velocity y [px/s]", true, false);
+        }
+
+        @Override
+        public void instant(long timestamp, String name, String[] argNames, long[] args, int argCount) throws IOException {
+            final ProtoBuffer event = mMessage;
+            event.clear();
+            event.writeVarint(EVENT_TYPE, TYPE_INSTANT);
+            event.writeVarint(EVENT_TRACK_UUID, TRACK_EVENTS);
+            event.writeString(EVENT_NAME, name);
+            for (int i = 0; i < argCount; i++) {
+                final ProtoBuffer annotation = mField;
+                annotation.clear();
+                annotation.writeString(ANNOTATION_NAME, argNames[i]);
+                annotation.writeVarint(ANNOTATION_INT_VALUE, args[i]);
+                event.writeMessage(EVENT_DEBUG_ANNOTATIONS, annotation);
+            }
+            writeEvent(timestamp, event);
+        }
+
+        @Override
+        public void slice(long timestamp, long duration, String name) throws IOException {
+            final ProtoBuffer event = mMessage;
+            event.clear();
+            event.writeVarint(EVENT_TYPE, TYPE_SLICE_BEGIN);
+            event.writeVarint(EVENT_TRACK_UUID, TRACK_STAGES);
+            event.writeString(EVENT_NAME, name);
+            writeEvent(timestamp, event);
+            event.clear();
+            event.writeVarint(EVENT_TYPE, TYPE_SLICE_END);
+            event.writeVarint(EVENT_TRACK_UUID, TRACK_STAGES);
+            writeEvent(timestamp + duration, event);
+        }
+
+        @Override
+        public void counter(long timestamp, long track, String name, double value) throws IOException {
+            final ProtoBuffer event = mMessage;
+            event.clear();
+            event.writeVarint(EVENT_TYPE, TYPE_COUNTER);
+            event.writeVarint(EVENT_TRACK_UUID, track);
+            event.writeDouble(EVENT_DOUBLE_COUNTER_VALUE, value);
+            writeEvent(timestamp, event);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.flush();
+        }
+
+        private void writeTrack(long uuid, String name, boolean counter, boolean first) throws IOException {
+            final ProtoBuffer descriptor = mMessage;
+            descriptor.clear();
+            descriptor.writeVarint(DESCRIPTOR_UUID, uuid);
+            descriptor.writeString(DESCRIPTOR_NAME, name);
+            if (counter) {
+                mField.clear();
+                descriptor.writeMessage(DESCRIPTOR_COUNTER, mField);
+            }
+            final ProtoBuffer packet = mPacket;
+            packet.clear();
+            packet.writeVarint(PACKET_SEQUENCE_ID, SEQUENCE_ID);
+            if (first) {
+                packet.writeVarint(PACKET_SEQUENCE_FLAGS, SEQ_INCREMENTAL_STATE_CLEARED);
+            }
+            packet.writeMessage(PACKET_TRACK_DESCRIPTOR, descriptor);
+            writePacket(packet);
+        }
+
+        private void writeEvent(long timestamp, ProtoBuffer event) throws IOException {
+            final ProtoBuffer packet = mPacket;
+            packet.clear();
+            packet.writeVarint(PACKET_TIMESTAMP, timestamp);
+            packet.writeVarint(PACKET_SEQUENCE_ID, SEQUENCE_ID);
+            packet.writeMessage(PACKET_TRACK_EVENT, event);
+            writePacket(packet);
+        }
+
+        private void writePacket(ProtoBuffer packet) throws IOException {
+            final ProtoBuffer header = mField;
+            header.clear();
+            header.writeTag(TRACE_PACKET, ProtoBuffer.WIRE_LENGTH_DELIMITED);
+            header.writeRawVarint(packet.mLength);
+            mOut.write(header.mBytes, 0, header.mLength);
+            mOut.write(packet.mBytes, 0, packet.mLength);
+        }
+    }
+
+    // growable protobuf encoder, cleared and reused for every message.
+    private static final class ProtoBuffer {
+        static final int WIRE_VARINT = 0;
+        static final int WIRE_FIXED64 = 1;
+        static final int WIRE_LENGTH_DELIMITED = 2;
+        static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        byte[] mBytes = new byte[256];
+        int mLength;
+
+        void clear() {
+            mLength = 0;
+        }
+
+        void writeTag(int field, int wireType) {
+            writeRawVarint((field << 3) | wireType);
+        }
+
+        void writeVarint(int field, long value) {
+            writeTag(field, WIRE_VARINT);
+            writeRawVarint(value);
+        }
+
+        void writeDouble(int field, double value) {
+            writeTag(field, WIRE_FIXED64);
+            final long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                mBytes[mLength++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        void writeString(int field, String value) {
+            writeBytes(field, value.getBytes(UTF_8), -1);
+        }
+
+        void writeMessage(int field, ProtoBuffer message) {
+            writeBytes(field, message.mBytes, message.mLength);
+        }
+
+        // length -1 writes the whole array.
+        private void writeBytes(int field, byte[] bytes, int length) {
+            final int n = length < 0 ? bytes.length : length;
+            writeTag(field, WIRE_LENGTH_DELIMITED);
+            writeRawVarint(n);
+            ensure(n);
+            System.arraycopy(bytes, 0, mBytes, mLength, n);
+            mLength += n;
+        }
+
+        void writeRawVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0L) {
+                mBytes[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBytes[mLength++] = (byte) value;
+        }
+
+        private void ensure(int n) {
+            if (mLength + n > mBytes.length) {
+                final byte[] bytes = new byte[Math.max(mBytes.length * 2, mLength + n)];
+                System.arraycopy(mBytes, 0, bytes, 0, mLength);
+                mBytes = bytes;
+            }
+        }
+    }
+}